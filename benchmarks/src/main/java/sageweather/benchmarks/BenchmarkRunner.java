@@ -0,0 +1,35 @@
+package sageweather.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the gc profiler so every result has its allocation rate next to the throughput
+ *  - java -jar target/benchmarks.jar [jmh options], for example "Getter" to run only GetterBenchmark
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(cmd);
+        if (cmd.getIncludes().isEmpty()) {
+            builder.include("sageweather\\.benchmarks\\..*Benchmark");
+        }
+        if (!cmd.getWarmupIterations().hasValue()) {
+            builder.warmupIterations(3);
+        }
+        if (!cmd.getMeasurementIterations().hasValue()) {
+            builder.measurementIterations(5);
+        }
+        if (!cmd.getForkCount().hasValue()) {
+            builder.forks(1);
+        }
+        Options options = builder.addProfiler(GCProfiler.class).build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,70 @@
+package sageweather.benchmarks;
+
+import sageweather.Log;
+import sageweather.utils;
+
+import java.io.*;
+import java.nio.charset.Charset;
+
+/**
+ * Recorded responses and a throw away SageTV folder for the benchmarks
+ *  - the plugin finds its files from user.dir so each benchmark points that at a temporary folder with
+ *    a backgrounds tree like the Gemstone one
+ *  - testing mode keeps the background refresh and api quota out of the measurements
+ */
+public class Fixtures {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public static String read(String resource) throws IOException {
+        InputStream in = Fixtures.class.getResourceAsStream("/" + resource);
+        if (in == null) {
+            throw new FileNotFoundException("Missing benchmark fixture '" + resource + "'");
+        }
+        try {
+            Reader reader = new InputStreamReader(in, UTF8);
+            StringBuilder sb = new StringBuilder();
+            char[] buffer = new char[4096];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                sb.append(buffer, 0, read);
+            }
+            return sb.toString();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Creates a temporary SageTV root with a few backgrounds for every condition code and makes it current
+     */
+    public static File createSageTVRoot() throws IOException {
+        File root = File.createTempFile("gweather-bench", "");
+        if (!root.delete() || !root.mkdirs()) {
+            throw new IOException("Unable to create '" + root + "'");
+        }
+        System.setProperty("user.dir", root.getPath());
+        File backgrounds = new File(utils.WeatherLocationBackgrounds(), "Backgrounds");
+        for (int code = 0; code < 48; code++) {
+            File dir = new File(backgrounds, String.valueOf(code));
+            if (!dir.mkdirs()) {
+                throw new IOException("Unable to create '" + dir + "'");
+            }
+            for (int i = 1; i <= 3; i++) {
+                new File(dir, "background" + i + ".jpg").createNewFile();
+            }
+        }
+        utils.setTesting(true);
+        Log.setLevel(null, "WARN");
+        return root;
+    }
+
+    public static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
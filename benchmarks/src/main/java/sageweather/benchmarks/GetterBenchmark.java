@@ -0,0 +1,68 @@
+package sageweather.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import sageweather.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The OWM getters a skin calls on every render, served from a saved forecast snapshot
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class GetterBenchmark {
+    private String userDir;
+    private File root;
+    private OWM owm;
+    private IForecastPeriod period;
+
+    @Setup
+    public void setup() throws IOException {
+        userDir = System.getProperty("user.dir");
+        root = Fixtures.createSageTVRoot();
+        owm = new OWM("bench");
+        geoLocation location = new geoLocation("Rockford, MN", "US", 45.0882, -93.7237, IWeatherLocation.Units.Standard);
+        owm.AddLocation(location, true);
+
+        OWMWeatherJsonHandler handler = new OWMWeatherJsonHandler();
+        handler.parse(new StringReader(Fixtures.read("onecall.json")), IWeatherLocation.Units.Standard);
+        ForecastStore.save(location.getID(), new ForecastSnapshot(IWeatherLocation.Units.Standard, handler.getCurrent(), handler.getDays(), handler.getRecordedDate(), new Date()));
+        period = owm.GetForecastPeriod(1);
+        if (period == null) {
+            throw new IllegalStateException("Benchmark location has no forecast");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        owm.StopBackgroundRefresh();
+        System.setProperty("user.dir", userDir);
+        Fixtures.delete(root);
+    }
+
+    @Benchmark
+    public List<IForecastPeriod> forecastPeriods() {
+        return owm.GetForecastPeriods();
+    }
+
+    @Benchmark
+    public String formattedTemp() {
+        return owm.GetFormattedTemp(period.getTemp());
+    }
+
+    @Benchmark
+    public String background() {
+        return owm.GetBackground();
+    }
+
+    @Benchmark
+    public String day() {
+        return owm.GetDay(period);
+    }
+}
@@ -0,0 +1,30 @@
+package sageweather.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import sageweather.WIcons;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turning provider icon urls into condition codes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class IconBenchmark {
+    private static final String[] urls = {
+            "http://www.google.com/ig/images/weather/chance_of_rain.gif",
+            "http://www.google.com/ig/images/weather/mostly_sunny.gif",
+            "http://forecast.weather.gov/images/wtf/ra40.jpg",
+            "http://forecast.weather.gov/images/wtf/hi_shwrs30.jpg",
+            "http://forecast.weather.gov/images/wtf/nscttsra20.png",
+            "http://forecast.weather.gov/images/wtf/skc.jpg",
+    };
+    private int next = 0;
+
+    @Benchmark
+    public String convertURLtoCondition() {
+        next = (next + 1) % urls.length;
+        return WIcons.ConvertURLtoCondition(urls[next], Boolean.TRUE);
+    }
+}
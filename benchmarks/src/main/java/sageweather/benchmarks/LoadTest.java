@@ -0,0 +1,157 @@
+package sageweather.benchmarks;
+
+import sageweather.*;
+
+import java.io.File;
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Refreshes hundreds of locations through OWM against the StandInServer - no network or api key needed
+ *  - each round forces a refresh of every location and reports the wall time, how many updated or failed,
+ *    the peak thread count, peak and retained heap and what the server saw
+ *  - options are name=value: locations (300), rounds (3), threads (RefreshThreads, 8), latency in ms as
+ *    min:max (50:250), errors (0), throttle (0), retryafter in secs (1), payload in bytes (0 = recorded
+ *    size), cache (false - the response cache), retries (FetchRetries, 2)
+ *  - java -cp target/benchmarks.jar sageweather.benchmarks.LoadTest locations=500 latency=100:400 errors=0.02
+ */
+public class LoadTest {
+    private static final String[] optionNames = {"locations", "rounds", "threads", "latency", "errors", "throttle", "retryafter", "payload", "cache", "retries"};
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<String, String>();
+        options.put("locations", "300");
+        options.put("rounds", "3");
+        options.put("threads", "8");
+        options.put("latency", "50:250");
+        options.put("errors", "0");
+        options.put("throttle", "0");
+        options.put("retryafter", "1");
+        options.put("payload", "0");
+        options.put("cache", "false");
+        options.put("retries", "2");
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            String name = split == -1 ? arg : arg.substring(0, split).trim().toLowerCase(Locale.ROOT);
+            if (split == -1 || !options.containsKey(name)) {
+                System.err.println("Unknown option '" + arg + "' - use name=value with one of " + Arrays.toString(optionNames));
+                System.exit(1);
+            }
+            options.put(name, arg.substring(split + 1).trim());
+        }
+        int locationCount = Integer.parseInt(options.get("locations"));
+        int rounds = Integer.parseInt(options.get("rounds"));
+        int threads = Integer.parseInt(options.get("threads"));
+        String[] latency = options.get("latency").split(":");
+
+        String userDir = System.getProperty("user.dir");
+        File root = Fixtures.createSageTVRoot();
+        StandInServer server = new StandInServer(Math.max(16, threads * 2));
+        try {
+            server.setLatencyMS(Integer.parseInt(latency[0]), Integer.parseInt(latency[latency.length - 1]));
+            server.setErrorRate(Double.parseDouble(options.get("errors")));
+            server.setThrottleRate(Double.parseDouble(options.get("throttle")), Integer.parseInt(options.get("retryafter")));
+            server.setPayloadBytes(Integer.parseInt(options.get("payload")));
+            server.start();
+
+            OWM owm = new OWM("LoadTest");
+            utils.SetServerProperty(utils.apiBaseUrlKey, server.getBaseUrl());
+            utils.SetServerProperty(WeatherRefresher.refreshThreadsKey, String.valueOf(threads));
+            utils.SetServerProperty(WeatherResponseCache.cacheEnabledKey, options.get("cache"));
+            utils.SetServerProperty(WeatherHttpClient.fetchRetriesKey, options.get("retries"));
+            utils.SetServerProperty(Log.logLevelKey, "WARN");
+            Log.configure();
+
+            System.gc();
+            long baseHeap = usedHeap();
+            List<geoLocation> locations = new ArrayList<geoLocation>(locationCount);
+            for (int i = 0; i < locationCount; i++) {
+                //spread over a grid so no two locations share a fetch
+                geoLocation location = new geoLocation("Location " + (i + 1), "US", 25.0 + (i / 60) * 0.5, -125.0 + (i % 60) * 0.9, IWeatherLocation.Units.Standard);
+                if (owm.AddLocation(location, i == 0)) {
+                    locations.add(location);
+                }
+            }
+
+            System.out.println("GWeather load test - " + locations.size() + " locations, RefreshThreads " + WeatherRefresher.getRefreshThreads()
+                    + ", latency " + options.get("latency") + "ms, errors " + options.get("errors") + ", throttle " + options.get("throttle")
+                    + ", payload " + server.getPayloadBytes() + " bytes, response cache " + options.get("cache") + ", server " + server.getBaseUrl());
+            for (int round = 1; round <= rounds; round++) {
+                runRound(round, locations, server);
+            }
+
+            System.gc();
+            long retained = usedHeap() - baseHeap;
+            System.out.println("retained heap " + (retained / 1024) + "KB (" + (retained / Math.max(1, locations.size())) + " bytes a location)");
+            System.out.println();
+            //the per location staleness lines would swamp the output
+            for (String line : WeatherMetrics.getInstance().dump().split("\n")) {
+                if (!line.startsWith("gweather_location_staleness")) {
+                    System.out.println(line);
+                }
+            }
+            owm.StopBackgroundRefresh();
+        } finally {
+            server.stop();
+            System.setProperty("user.dir", userDir);
+            Fixtures.delete(root);
+        }
+    }
+
+    private static void runRound(int round, List<geoLocation> locations, StandInServer server) {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        List<MemoryPoolMXBean> heapPools = new ArrayList<MemoryPoolMXBean>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        }
+        //make every location go to the server rather than share the last result
+        ForecastFetcher.clear();
+        server.resetCounts();
+        int startThreads = threadBean.getThreadCount();
+        threadBean.resetPeakThreadCount();
+
+        long start = System.currentTimeMillis();
+        List<CompletableFuture<WeatherRefresher.Result>> futures = new ArrayList<CompletableFuture<WeatherRefresher.Result>>(locations.size());
+        for (geoLocation location : locations) {
+            futures.add(WeatherRefresher.refreshAsync(location, true));
+        }
+        int updated = 0;
+        int failed = 0;
+        long slowestMS = 0;
+        for (CompletableFuture<WeatherRefresher.Result> future : futures) {
+            WeatherRefresher.Result result = future.join();
+            if (result.isUpdated()) {
+                updated++;
+            } else if (result.hasError()) {
+                failed++;
+            }
+            slowestMS = Math.max(slowestMS, result.getElapsedMS());
+        }
+        long wallMS = System.currentTimeMillis() - start;
+        int refreshThreads = 0;
+        for (ThreadInfo info : threadBean.getThreadInfo(threadBean.getAllThreadIds())) {
+            if (info != null && info.getThreadName().startsWith("GWeather-refresh-")) {
+                refreshThreads++;
+            }
+        }
+
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            peakHeap += pool.getPeakUsage().getUsed();
+        }
+        System.out.println("round " + round + ": " + wallMS + "ms wall, " + updated + " updated, " + failed + " failed, slowest location " + slowestMS + "ms"
+                + " | threads " + startThreads + " -> peak " + threadBean.getPeakThreadCount() + " (" + refreshThreads + " refresh)"
+                + " | peak heap " + (peakHeap / (1024 * 1024)) + "MB"
+                + " | server " + server.getRequests() + " requests, " + server.getErrors() + " errors, " + server.getThrottled() + " throttled, "
+                + (server.getBytesSent() / 1024) + "KB sent, " + server.getMaxOpen() + " open at most"
+                + " | breaker " + ForecastFetcher.getBreaker().getState());
+    }
+
+    private static long usedHeap() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
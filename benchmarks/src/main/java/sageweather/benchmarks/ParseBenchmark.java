@@ -0,0 +1,42 @@
+package sageweather.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import sageweather.IWeatherLocation;
+import sageweather.OWMWeatherJsonHandler;
+import sageweather.WeatherLocations;
+import sageweather.geoLocationSearch;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing recorded onecall and geocoding responses
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ParseBenchmark {
+    private String onecall;
+    private String geocoding;
+
+    @Setup
+    public void setup() throws IOException {
+        onecall = Fixtures.read("onecall.json");
+        geocoding = Fixtures.read("geocoding.json");
+    }
+
+    @Benchmark
+    public OWMWeatherJsonHandler onecallStreaming() throws IOException {
+        OWMWeatherJsonHandler handler = new OWMWeatherJsonHandler();
+        handler.parse(new StringReader(onecall), IWeatherLocation.Units.Metric);
+        return handler;
+    }
+
+    @Benchmark
+    public WeatherLocations geocoding() throws IOException {
+        geoLocationSearch search = new geoLocationSearch("Rockford", IWeatherLocation.Units.Standard);
+        search.parse(new StringReader(geocoding));
+        return search.getSearchResults();
+    }
+}
@@ -0,0 +1,63 @@
+package sageweather.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import sageweather.Const;
+import sageweather.WeatherProperties;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading one location's settings out of a properties file holding many locations
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PropertiesBenchmark {
+    private static final int locations = 50;
+    private String userDir;
+    private File root;
+    private WeatherProperties props;
+    private String prefix;
+
+    @Setup
+    public void setup() throws IOException {
+        userDir = System.getProperty("user.dir");
+        root = Fixtures.createSageTVRoot();
+        props = new WeatherProperties("bench");
+        for (int i = 0; i < locations; i++) {
+            String locKey = Const.BaseProp + Const.PropDivider + Const.WeatherLoc + Const.PropDivider + (100000 + i) + Const.PropDivider;
+            props.setProperty(locKey + "name", "Location " + i);
+            props.setProperty(locKey + "country", "US");
+            props.setProperty(locKey + "lat", String.valueOf(40 + i / 10.0));
+            props.setProperty(locKey + "lon", String.valueOf(-90 - i / 10.0));
+            props.setProperty(locKey + "units", "Standard");
+        }
+        for (int i = 0; i < 48; i++) {
+            props.setProperty(Const.Weather + Const.PropDivider + Const.WeatherBGIndex + Const.PropDivider + i, "0");
+        }
+        prefix = Const.BaseProp + Const.PropDivider + Const.WeatherLoc + Const.PropDivider + (100000 + locations / 2) + Const.PropDivider;
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setProperty("user.dir", userDir);
+        Fixtures.delete(root);
+    }
+
+    @Benchmark
+    public Map getPropertiesWithPrefix() {
+        return props.getPropertiesWithPrefix(prefix);
+    }
+
+    @Benchmark
+    public int getPropertiesView() {
+        int count = 0;
+        for (String key : props.getPropertiesView(prefix).keySet()) {
+            count += key.length();
+        }
+        return count;
+    }
+}
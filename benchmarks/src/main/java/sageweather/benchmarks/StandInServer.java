@@ -0,0 +1,271 @@
+package sageweather.benchmarks;
+
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local stand-in for api.openweathermap.org serving the recorded responses
+ *  - answers /data/3.0/onecall, /geo/1.0/direct and /geo/1.0/zip on 127.0.0.1 - point the plugin at it with
+ *    the ApiBaseUrl weather property set to getBaseUrl()
+ *  - each request waits a random latency in the configured range, then fails with a 503 or a 429 (with
+ *    Retry-After) at the configured rates, otherwise answers with the recorded body
+ *  - the onecall body can be padded to a given size to test large responses, bodies are gzipped when the
+ *    client asks for it just like the real api
+ *  - requests, failures, bytes sent and the most requests open at once are counted for the load test
+ */
+public class StandInServer {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final byte[] geoDirect;
+    private final byte[] geoZip;
+    private final String onecallJson;
+    private volatile Body onecall;
+
+    private volatile int minLatencyMS = 0;
+    private volatile int maxLatencyMS = 0;
+    private volatile double errorRate = 0;
+    private volatile double throttleRate = 0;
+    private volatile int retryAfterSecs = 1;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicInteger open = new AtomicInteger();
+    private final AtomicInteger maxOpen = new AtomicInteger();
+
+    //a body kept both plain and gzipped so serving it costs no more than a copy
+    private static class Body {
+        private final byte[] plain;
+        private final byte[] gzip;
+
+        private Body(byte[] plain) throws IOException {
+            this.plain = plain;
+            ByteArrayOutputStream out = new ByteArrayOutputStream(plain.length / 4);
+            GZIPOutputStream gz = new GZIPOutputStream(out);
+            gz.write(plain);
+            gz.close();
+            this.gzip = out.toByteArray();
+        }
+    }
+
+    /**
+     * @param threads threads answering requests - requests wait out their latency on these so use at
+     *                least as many as the client has requests open at once
+     */
+    public StandInServer(int threads) throws IOException {
+        onecallJson = Fixtures.read("onecall.json");
+        onecall = new Body(onecallJson.getBytes(UTF8));
+        String geocoding = Fixtures.read("geocoding.json");
+        geoDirect = geocoding.getBytes(UTF8);
+        //a zip search answers with a single location rather than a list
+        geoZip = new JsonParser().parse(geocoding).getAsJsonArray().get(0).toString().getBytes(UTF8);
+
+        final AtomicInteger count = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "GWeather-StandIn-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 256);
+        server.setExecutor(executor);
+        server.createContext("/data/3.0/onecall", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                Body body = onecall;
+                serve(exchange, body.plain, body.gzip);
+            }
+        });
+        server.createContext("/geo/1.0/direct", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange, geoDirect, null);
+            }
+        });
+        server.createContext("/geo/1.0/zip", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange, geoZip, null);
+            }
+        });
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return the url to use as the ApiBaseUrl weather property
+     */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    public void setLatencyMS(int minMS, int maxMS) {
+        this.minLatencyMS = Math.max(0, minMS);
+        this.maxLatencyMS = Math.max(this.minLatencyMS, maxMS);
+    }
+
+    /**
+     * Part of requests (0-1) answered with a 503
+     */
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * Part of requests (0-1) answered with a 429 asking the client to wait retryAfterSecs
+     */
+    public void setThrottleRate(double throttleRate, int retryAfterSecs) {
+        this.throttleRate = throttleRate;
+        this.retryAfterSecs = retryAfterSecs;
+    }
+
+    /**
+     * Pads the onecall body with an unused field so it is at least the passed size in bytes
+     */
+    public void setPayloadBytes(int payloadBytes) throws IOException {
+        int padding = payloadBytes - onecallJson.length();
+        if (padding <= 0) {
+            onecall = new Body(onecallJson.getBytes(UTF8));
+            return;
+        }
+        StringBuilder sb = new StringBuilder(payloadBytes + 32);
+        int start = onecallJson.indexOf('{') + 1;
+        sb.append(onecallJson, 0, start).append("\"padding\":\"");
+        //varied text so gzip does not shrink the padding to nothing
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < padding; i++) {
+            sb.append((char) ('a' + random.nextInt(26)));
+        }
+        sb.append("\",").append(onecallJson, start, onecallJson.length());
+        onecall = new Body(sb.toString().getBytes(UTF8));
+    }
+
+    public int getPayloadBytes() {
+        return onecall.plain.length;
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public long getThrottled() {
+        return throttled.get();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    public int getMaxOpen() {
+        return maxOpen.get();
+    }
+
+    public void resetCounts() {
+        requests.set(0);
+        errors.set(0);
+        throttled.set(0);
+        bytesSent.set(0);
+        maxOpen.set(open.get());
+    }
+
+    private void serve(HttpExchange exchange, byte[] plain, byte[] gzip) throws IOException {
+        int nowOpen = open.incrementAndGet();
+        int max = maxOpen.get();
+        while (nowOpen > max && !maxOpen.compareAndSet(max, nowOpen)) {
+            max = maxOpen.get();
+        }
+        requests.incrementAndGet();
+        try {
+            drain(exchange.getRequestBody());
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int latency = maxLatencyMS > minLatencyMS ? minLatencyMS + random.nextInt(maxLatencyMS - minLatencyMS + 1) : minLatencyMS;
+            if (latency > 0) {
+                try {
+                    Thread.sleep(latency);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            String query = exchange.getRequestURI().getRawQuery();
+            if (query == null || !query.contains("appid=")) {
+                send(exchange, 401, "{\"cod\":401,\"message\":\"Invalid API key.\"}".getBytes(UTF8), false);
+                return;
+            }
+            double roll = random.nextDouble();
+            if (roll < throttleRate) {
+                throttled.incrementAndGet();
+                exchange.getResponseHeaders().set("Retry-After", String.valueOf(retryAfterSecs));
+                send(exchange, 429, "{\"cod\":429,\"message\":\"Too many requests\"}".getBytes(UTF8), false);
+                return;
+            }
+            if (roll < throttleRate + errorRate) {
+                errors.incrementAndGet();
+                send(exchange, 503, "{\"cod\":503,\"message\":\"Service unavailable\"}".getBytes(UTF8), false);
+                return;
+            }
+            String encoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            if (gzip != null && encoding != null && encoding.contains("gzip")) {
+                send(exchange, 200, gzip, true);
+            } else {
+                send(exchange, 200, plain, false);
+            }
+        } finally {
+            open.decrementAndGet();
+            exchange.close();
+        }
+    }
+
+    private void send(HttpExchange exchange, int status, byte[] body, boolean gzipped) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        if (gzipped) {
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+        bytesSent.addAndGet(body.length);
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[1024];
+        while (in.read(buffer) != -1) {
+            //discard
+        }
+        in.close();
+    }
+}
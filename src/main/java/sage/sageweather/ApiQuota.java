@@ -0,0 +1,420 @@
+package sageweather;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps OpenWeatherMap calls within the limits of the api key in use
+ *  - calls are counted per key in rolling minute and day windows which are saved to GWeatherQuota.properties
+ *    so a restart does not reset the day - the file is written behind (a few seconds after a change and at
+ *    shutdown) through a temp file and rename so admitting a call never waits on the disk
+ *  - the limits are the MaxCallsPerMinute and MaxCallsPerDay weather properties for a user key, the built in
+ *    developer key only gets a few calls a day
+ *  - requests are admitted by priority: the default location may use the whole budget, other locations
+ *    stop a little earlier and searches earlier again so they can never starve the weather on screen
+ *  - a 429 from the provider closes the key until the time it asked us to wait has passed
+ */
+public class ApiQuota {
+    public static final String maxCallsPerMinuteKey = Const.BaseProp + Const.PropDivider + Const.WeatherProp + Const.PropDivider + "MaxCallsPerMinute";
+    public static final String maxCallsPerDayKey = Const.BaseProp + Const.PropDivider + Const.WeatherProp + Const.PropDivider + "MaxCallsPerDay";
+    public static final int defaultMaxCallsPerMinute = 60;
+    public static final int defaultMaxCallsPerDay = 1000;
+    private static final int devCallsPerDay = 3;
+    private static final long minuteMS = 60 * 1000L;
+    private static final long dayMS = 24 * 60 * minuteMS;
+    private static final long defaultBackOffMS = minuteMS;
+    private static final String quotaFileName = "GWeatherQuota.properties";
+
+    /**
+     * Who is asking - lower ordinal wins when the budget is nearly used up
+     */
+    public static enum Priority {
+        Default(1.0), Location(0.9), Search(0.75);
+
+        private final double share;
+
+        Priority(double share) {
+            this.share = share;
+        }
+
+        /**
+         * Part of each window this priority may use
+         */
+        public double getShare() {
+            return share;
+        }
+    }
+
+    /**
+     * Thrown instead of calling the provider when the budget for the key is used up
+     */
+    public static class QuotaExceededException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public QuotaExceededException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Calls counted in fixed width slots covering a rolling window
+     */
+    static class RollingWindow {
+        private final long slotMS;
+        private final long[] slotStart;
+        private final int[] count;
+
+        RollingWindow(long windowMS, int slots) {
+            this.slotMS = windowMS / slots;
+            this.slotStart = new long[slots];
+            this.count = new int[slots];
+        }
+
+        void add(long now) {
+            long start = now - (now % slotMS);
+            int slot = (int) ((now / slotMS) % count.length);
+            if (slotStart[slot] != start) {
+                slotStart[slot] = start;
+                count[slot] = 0;
+            }
+            count[slot]++;
+        }
+
+        int total(long now) {
+            long oldest = now - slotMS * count.length;
+            int total = 0;
+            for (int i = 0; i < count.length; i++) {
+                if (slotStart[i] > oldest) {
+                    total += count[i];
+                }
+            }
+            return total;
+        }
+
+        String save() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < count.length; i++) {
+                if (count[i] > 0) {
+                    sb.append(slotStart[i]).append(':').append(count[i]).append(',');
+                }
+            }
+            return sb.toString();
+        }
+
+        void load(String value, long now) {
+            if (StringUtils.isEmpty(value)) {
+                return;
+            }
+            for (String item : value.split(",")) {
+                String[] parts = item.split(":");
+                if (parts.length != 2) {
+                    continue;
+                }
+                long start = Long.parseLong(parts[0].trim());
+                int slot = (int) ((start / slotMS) % count.length);
+                if (start > now - slotMS * count.length && start > slotStart[slot]) {
+                    slotStart[slot] = start;
+                    count[slot] = Integer.parseInt(parts[1].trim());
+                }
+            }
+        }
+    }
+
+    private static class KeyUsage {
+        private final RollingWindow minute = new RollingWindow(minuteMS, 12);
+        private final RollingWindow day = new RollingWindow(dayMS, 24);
+        private long closedUntil = 0;
+    }
+
+    private static final Map<String, KeyUsage> usage = new HashMap<>();
+    private static boolean loaded = false;
+    private static final long saveDelayMS = 5000;
+    private static final Object writeLock = new Object();
+    private static boolean dirty = false;
+    private static ScheduledExecutorService writer = null;
+
+    /**
+     * Counts a call against the key in the url if the budget allows it
+     *
+     * @return true if the call may go ahead
+     */
+    public static boolean tryAcquire(String url, Priority priority) {
+        String apiKey = getKeyFromUrl(url);
+        if (apiKey == null) {
+            //not a call that needs a key so not limited
+            return true;
+        }
+        boolean devKey = isDevKey(apiKey);
+        if (devKey && utils.isTesting()) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (usage) {
+            KeyUsage keyUsage = getUsage(apiKey);
+            if (now < keyUsage.closedUntil) {
+                Log.info("ApiQuota","ApiQuota: tryAcquire - provider asked us to wait another " + ((keyUsage.closedUntil - now) / 1000) + "s - " + priority + " call refused");
+                return false;
+            }
+            int perMinute = devKey ? devCallsPerDay : getMaxCallsPerMinute();
+            int perDay = devKey ? devCallsPerDay : getMaxCallsPerDay();
+            if (keyUsage.minute.total(now) + 1 > allowed(perMinute, priority) || keyUsage.day.total(now) + 1 > allowed(perDay, priority)) {
+                Log.info("ApiQuota","ApiQuota: tryAcquire - budget used (" + keyUsage.minute.total(now) + "/" + perMinute + " a minute, " + keyUsage.day.total(now) + "/" + perDay + " a day) - " + priority + " call refused");
+                return false;
+            }
+            keyUsage.minute.add(now);
+            keyUsage.day.add(now);
+            save();
+        }
+        WeatherMetrics.recordApiCall(hashKey(apiKey));
+        return true;
+    }
+
+    /**
+     * Closes the key in the url after a 429 for the time the provider asked for (or a minute)
+     */
+    public static void backOff(String url, int retryAfterSecs) {
+        String apiKey = getKeyFromUrl(url);
+        if (apiKey == null) {
+            return;
+        }
+        long waitMS = retryAfterSecs > 0 ? retryAfterSecs * 1000L : defaultBackOffMS;
+        synchronized (usage) {
+            KeyUsage keyUsage = getUsage(apiKey);
+            keyUsage.closedUntil = Math.max(keyUsage.closedUntil, System.currentTimeMillis() + waitMS);
+            save();
+        }
+        Log.info("ApiQuota","ApiQuota: backOff - provider rate limit hit - no calls for " + (waitMS / 1000) + "s");
+    }
+
+    /**
+     * Returns the calls made with the key in use in the last day
+     */
+    public static int getCallsToday() {
+        String apiKey = utils.getAPIKey();
+        if (StringUtils.isEmpty(apiKey)) {
+            return 0;
+        }
+        synchronized (usage) {
+            return getUsage(apiKey).day.total(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Returns the calls left today for the key in use at the passed priority
+     */
+    public static int getRemainingToday(Priority priority) {
+        String apiKey = utils.getAPIKey();
+        if (StringUtils.isEmpty(apiKey)) {
+            return 0;
+        }
+        return Math.max(0, getDailyLimit(priority) - getCallsToday());
+    }
+
+    /**
+     * Returns the calls a day the key in use may make at the passed priority
+     *  - the developer key gets a few calls a day, a user key MaxCallsPerDay
+     */
+    public static int getDailyLimit(Priority priority) {
+        String apiKey = utils.getAPIKey();
+        int perDay = !StringUtils.isEmpty(apiKey) && isDevKey(apiKey) ? devCallsPerDay : getMaxCallsPerDay();
+        return allowed(perDay, priority);
+    }
+
+    private static int allowed(int limit, Priority priority) {
+        //always leave the default location at least one call
+        return Math.max(priority == Priority.Default ? 1 : 0, (int) Math.floor(limit * priority.getShare()));
+    }
+
+    private static KeyUsage getUsage(String apiKey) {
+        if (!loaded) {
+            load();
+        }
+        String id = hashKey(apiKey);
+        KeyUsage keyUsage = usage.get(id);
+        if (keyUsage == null) {
+            keyUsage = new KeyUsage();
+            usage.put(id, keyUsage);
+        }
+        return keyUsage;
+    }
+
+    private static boolean isDevKey(String apiKey) {
+        return !utils.hasUserKey() || !apiKey.equals(utils.getUserKey());
+    }
+
+    static String getKeyFromUrl(String url) {
+        if (url == null) {
+            return null;
+        }
+        int start = url.indexOf("appid=");
+        if (start == -1) {
+            return null;
+        }
+        start += "appid=".length();
+        int end = url.indexOf('&', start);
+        String apiKey = end == -1 ? url.substring(start) : url.substring(start, end);
+        return apiKey.isEmpty() ? null : apiKey;
+    }
+
+    //keys are never written to disk - only a short hash to tell them apart
+    private static String hashKey(String apiKey) {
+        return WeatherResponseCache.sha1(apiKey).substring(0, 12);
+    }
+
+    private static File getQuotaFile() {
+        return new File(utils.GetSageTVRootDir(), quotaFileName);
+    }
+
+    private static void load() {
+        loaded = true;
+        if (utils.isTesting()) {
+            return;
+        }
+        File file = getQuotaFile();
+        if (!file.isFile()) {
+            return;
+        }
+        Properties props = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            props.load(in);
+        } catch (IOException e) {
+            Log.info("ApiQuota","ApiQuota: load - could not read '" + file + "' - starting with empty counts : " + e);
+            return;
+        } finally {
+            if (in != null) {
+                try{in.close();}catch(IOException e){}
+            }
+        }
+        long now = System.currentTimeMillis();
+        for (String name : props.stringPropertyNames()) {
+            int dot = name.lastIndexOf('.');
+            if (dot == -1) {
+                continue;
+            }
+            String id = name.substring(0, dot);
+            KeyUsage keyUsage = usage.get(id);
+            if (keyUsage == null) {
+                keyUsage = new KeyUsage();
+                usage.put(id, keyUsage);
+            }
+            String value = props.getProperty(name);
+            try {
+                if (name.endsWith(".minute")) {
+                    keyUsage.minute.load(value, now);
+                } else if (name.endsWith(".day")) {
+                    keyUsage.day.load(value, now);
+                } else if (name.endsWith(".closedUntil")) {
+                    keyUsage.closedUntil = Long.parseLong(value.trim());
+                }
+            } catch (NumberFormatException e) {
+                Log.info("ApiQuota","ApiQuota: load - ignoring invalid entry '" + name + "'");
+            }
+        }
+    }
+
+    //called holding usage - the counts are written behind so callers never wait on the disk
+    private static void save() {
+        if (utils.isTesting() || dirty) {
+            return;
+        }
+        dirty = true;
+        getWriter().schedule(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, saveDelayMS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes the call counts now if they changed since the last write
+     */
+    public static void flush() {
+        synchronized (writeLock) {
+            Properties props = new Properties();
+            synchronized (usage) {
+                if (!dirty) {
+                    return;
+                }
+                dirty = false;
+                for (Map.Entry<String, KeyUsage> entry : usage.entrySet()) {
+                    props.setProperty(entry.getKey() + ".minute", entry.getValue().minute.save());
+                    props.setProperty(entry.getKey() + ".day", entry.getValue().day.save());
+                    props.setProperty(entry.getKey() + ".closedUntil", String.valueOf(entry.getValue().closedUntil));
+                }
+            }
+            File file = getQuotaFile();
+            //write a temp file and move it over the old one so a crash never leaves a truncated file
+            File temp = new File(file.getPath() + ".tmp");
+            FileOutputStream out = null;
+            try {
+                out = new FileOutputStream(temp);
+                BufferedOutputStream buffered = new BufferedOutputStream(out);
+                props.store(buffered, "GWeather API call counts - do not edit");
+                buffered.flush();
+                out.getFD().sync();
+                out.close();
+                out = null;
+                try {
+                    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException e) {
+                Log.info("ApiQuota","ApiQuota: save - could not write '" + file + "' : " + e);
+                temp.delete();
+            } finally {
+                if (out != null) {
+                    try{out.close();}catch(IOException e){}
+                    temp.delete();
+                }
+            }
+        }
+    }
+
+    private static synchronized ScheduledExecutorService getWriter() {
+        if (writer == null) {
+            writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "GWeather-QuotaWriter");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            //the writer is a daemon so counts still queued are written here
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            }, "GWeather-QuotaFlush"));
+        }
+        return writer;
+    }
+
+    public static int getMaxCallsPerMinute() {
+        if (OWM.wProps == null) {
+            return defaultMaxCallsPerMinute;
+        }
+        return Math.max(1, utils.GetServerPropertyAsInteger(maxCallsPerMinuteKey, defaultMaxCallsPerMinute));
+    }
+
+    public static int getMaxCallsPerDay() {
+        if (OWM.wProps == null) {
+            return defaultMaxCallsPerDay;
+        }
+        return Math.max(1, utils.GetServerPropertyAsInteger(maxCallsPerDayKey, defaultMaxCallsPerDay));
+    }
+}
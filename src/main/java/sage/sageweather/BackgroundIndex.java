@@ -0,0 +1,92 @@
+package sageweather;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * In-memory list of the background images for each condition code
+ *  - built from the Gemstone Backgrounds/&lt;code&gt; directories the first time a background is asked for
+ *  - rebuilt by the DirectoryWatcher when files are added or removed so lookups never touch the disk
+ */
+public class BackgroundIndex implements DirectoryWatcher.Listener {
+    private static final int codeCount = 48;
+    private static final List<String> none = Collections.emptyList();
+    private static volatile BackgroundIndex instance = null;
+
+    private final File root;
+    private volatile List<List<String>> files = null;
+
+    private BackgroundIndex(File root) {
+        this.root = root;
+    }
+
+    public static BackgroundIndex getInstance() {
+        File root = new File(utils.WeatherLocationBackgrounds() + File.separator + "Backgrounds");
+        //called by every UI getter so only lock when the instance has to be created or replaced
+        BackgroundIndex current = instance;
+        if (current != null && current.root.equals(root)) {
+            return current;
+        }
+        return replaceInstance(root);
+    }
+
+    private static synchronized BackgroundIndex replaceInstance(File root) {
+        if (instance == null || !instance.root.equals(root)) {
+            if (instance != null) {
+                DirectoryWatcher.getInstance().unwatch(instance.root);
+            }
+            instance = new BackgroundIndex(root);
+            DirectoryWatcher.getInstance().watch(root, instance);
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the sorted image file names for the code - shared and unmodifiable
+     */
+    public List<String> getFiles(int code) {
+        if (code < 0 || code >= codeCount) {
+            return none;
+        }
+        List<List<String>> tFiles = files;
+        if (tFiles == null) {
+            tFiles = build();
+        }
+        return tFiles.get(code);
+    }
+
+    public String getPath(int code) {
+        return root.getPath() + File.separator + code + File.separator;
+    }
+
+    @Override
+    public void directoryChanged(File changedRoot) {
+        Log.info("BackgroundIndex","BackgroundIndex: directoryChanged - rebuilding backgrounds for '" + root + "'");
+        build();
+    }
+
+    private synchronized List<List<String>> build() {
+        List<List<String>> tFiles = new ArrayList<List<String>>(codeCount);
+        int total = 0;
+        for (int code = 0; code < codeCount; code++) {
+            File[] list = new File(root, String.valueOf(code)).listFiles();
+            if (list == null) {
+                tFiles.add(none);
+                continue;
+            }
+            SortedSet<String> names = new TreeSet<String>();
+            for (File file : list) {
+                if (!file.isDirectory()) {
+                    names.add(file.getName());
+                }
+            }
+            tFiles.add(Collections.unmodifiableList(new ArrayList<String>(names)));
+            total += names.size();
+        }
+        if (total == 0) {
+            Log.info("BackgroundIndex","BackgroundIndex: build - no backgrounds found in '" + root + "'");
+        }
+        files = tFiles;
+        return tFiles;
+    }
+}
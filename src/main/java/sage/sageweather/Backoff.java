@@ -0,0 +1,43 @@
+package sageweather;
+
+import java.util.Random;
+
+/**
+ * Capped exponential backoff with jitter
+ *  - the delay doubles with each attempt up to the cap
+ *  - half of each delay is random so clients that failed together do not retry together
+ */
+public class Backoff {
+    private static final Random random = new Random();
+
+    private final long baseMS;
+    private final long capMS;
+
+    public Backoff(long baseMS, long capMS) {
+        this.baseMS = baseMS;
+        this.capMS = capMS;
+    }
+
+    /**
+     * Returns the delay before the passed retry attempt (0 for the first retry)
+     */
+    public long getDelayMS(int attempt) {
+        long delay = capMS;
+        //stop doubling well before the shift could overflow
+        if (attempt < 30) {
+            delay = Math.min(capMS, baseMS << attempt);
+        }
+        long half = delay / 2;
+        synchronized (random) {
+            return half + (long) (random.nextDouble() * (delay - half));
+        }
+    }
+
+    public long getBaseMS() {
+        return baseMS;
+    }
+
+    public long getCapMS() {
+        return capMS;
+    }
+}
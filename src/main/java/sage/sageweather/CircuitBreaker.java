@@ -0,0 +1,166 @@
+package sageweather;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stops calling a provider host that is down
+ *  - after a few failures in a row the breaker opens and calls fail straight away instead of waiting on
+ *    connections that will not work
+ *  - once the open time has passed a single probe call is let through (half open) - if it works the
+ *    breaker closes, if not it opens again for longer (capped exponential backoff with jitter)
+ *  - one breaker per host, shared by every location and OWM instance
+ */
+public class CircuitBreaker {
+    private static final int failureThreshold = 3;
+    private static final Backoff openBackoff = new Backoff(30 * 1000L, 10 * 60 * 1000L);
+    private static final ConcurrentHashMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    public static enum State {
+        Closed, Open, HalfOpen
+    }
+
+    /**
+     * Thrown instead of calling a host while its breaker is open
+     */
+    public static class CircuitOpenException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public CircuitOpenException(String message) {
+            super(message);
+        }
+    }
+
+    private final String host;
+    private State state = State.Closed;
+    private int failures = 0;
+    private int trips = 0;
+    private long openUntil = 0;
+    private boolean probing = false;
+    private String lastFailure = null;
+
+    private CircuitBreaker(String host) {
+        this.host = host;
+    }
+
+    public static CircuitBreaker forHost(String host) {
+        CircuitBreaker breaker = breakers.get(host);
+        if (breaker == null) {
+            breakers.putIfAbsent(host, new CircuitBreaker(host));
+            breaker = breakers.get(host);
+        }
+        return breaker;
+    }
+
+    public static CircuitBreaker forUrl(String url) {
+        try {
+            return forHost(new URL(url).getHost());
+        } catch (IOException e) {
+            return forHost("");
+        }
+    }
+
+    /**
+     * Claims permission for a call - in half open only the first caller gets to probe
+     */
+    public synchronized boolean allowRequest() {
+        if (state == State.Closed) {
+            return true;
+        }
+        if (state == State.Open) {
+            if (System.currentTimeMillis() < openUntil) {
+                return false;
+            }
+            state = State.HalfOpen;
+            probing = false;
+        }
+        if (probing) {
+            return false;
+        }
+        probing = true;
+        Log.info("CircuitBreaker","CircuitBreaker: allowRequest - probing '" + host + "' after " + trips + " trips");
+        return true;
+    }
+
+    /**
+     * Returns true if a call might be allowed now - does not claim the half open probe
+     */
+    public synchronized boolean isAvailable() {
+        if (state == State.Open) {
+            return System.currentTimeMillis() >= openUntil;
+        }
+        return state == State.Closed || !probing;
+    }
+
+    /**
+     * Gives back a call claimed with allowRequest that was never made
+     */
+    public synchronized void releaseRequest() {
+        if (state == State.HalfOpen) {
+            probing = false;
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        if (state != State.Closed) {
+            Log.info("CircuitBreaker","CircuitBreaker: recordSuccess - '" + host + "' has recovered - closing");
+        }
+        state = State.Closed;
+        failures = 0;
+        trips = 0;
+        probing = false;
+        lastFailure = null;
+    }
+
+    public synchronized void recordFailure(Throwable cause) {
+        failures++;
+        lastFailure = String.valueOf(cause);
+        if (state == State.HalfOpen || failures >= failureThreshold) {
+            long delay = openBackoff.getDelayMS(trips);
+            trips++;
+            state = State.Open;
+            probing = false;
+            openUntil = System.currentTimeMillis() + delay;
+            Log.info("CircuitBreaker","CircuitBreaker: recordFailure - '" + host + "' is failing (" + lastFailure + ") - open for " + (delay / 1000) + "s");
+        }
+    }
+
+    public synchronized State getState() {
+        if (state == State.Open && System.currentTimeMillis() >= openUntil) {
+            return State.HalfOpen;
+        }
+        return state;
+    }
+
+    /**
+     * Returns a message describing a known outage, or null while the host is working
+     */
+    public synchronized String getStatusMessage() {
+        if (state == State.Closed) {
+            return null;
+        }
+        long wait = Math.max(0, openUntil - System.currentTimeMillis()) / 1000;
+        if (state == State.Open && wait > 0) {
+            return "Weather provider '" + host + "' is unavailable - next try in " + (wait < 60 ? wait + "s" : (wait / 60) + " min");
+        }
+        return "Weather provider '" + host + "' is unavailable - checking if it has recovered";
+    }
+
+    public synchronized String getLastFailure() {
+        return lastFailure;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Closes every breaker - used when the provider settings change
+     */
+    public static void resetAll() {
+        for (CircuitBreaker breaker : breakers.values()) {
+            breaker.recordSuccess();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package sageweather;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Fixed lookup tables for weather condition codes
+ *  - OWM condition ids (200-804) map to the 0-47 codes used for icons and backgrounds, one code for day
+ *    and one for night
+ *  - codes can be forced to their day or night version and turned into text
+ *  - the tables are int and String arrays built once so a lookup is an index and allocates nothing
+ */
+public class ConditionCodes {
+    public static final int Unknown = -1;
+    public static final int CodeCount = 48;
+    //legacy "not available" code some skins still pass
+    public static final int NotAvailable = 3200;
+    private static final int minOwmId = 200;
+    private static final int maxOwmId = 804;
+
+    private static final int[] owmDay = new int[maxOwmId - minOwmId + 1];
+    private static final int[] owmNight = new int[maxOwmId - minOwmId + 1];
+    private static final int[] forceDay = new int[CodeCount];
+    private static final int[] forceNight = new int[CodeCount];
+    private static final String[] text = new String[CodeCount];
+    //OWM "main" group names - only used if an id is ever missing and the group is passed instead
+    private static final Map<String, int[]> owmGroups;
+
+    static {
+        Arrays.fill(owmDay, Unknown);
+        Arrays.fill(owmNight, Unknown);
+        owm(37, 47, 200, 201, 202, 210, 211, 212, 221, 230, 231, 232);
+        owm(9, 45, 300, 301, 302, 310, 311, 312, 313, 314, 321);
+        owm(11, 45, 500, 520);
+        owm(12, 45, 501, 521);
+        owm(40, 45, 502, 503, 504, 522, 531);
+        owm(7, 7, 511);
+        owm(13, 46, 600, 620);
+        owm(14, 46, 601, 621);
+        owm(16, 46, 602, 622);
+        owm(7, 46, 611, 616);
+        owm(6, 46, 612);
+        owm(5, 46, 613, 615);
+        owm(11, 11, 701);
+        owm(22, 22, 711, 762);
+        owm(21, 21, 721);
+        owm(19, 19, 731, 751, 761);
+        owm(20, 20, 741);
+        owm(35, 35, 771);
+        owm(23, 24, 781);
+        owm(32, 31, 800);
+        owm(34, 33, 801, 802);
+        owm(30, 29, 803);
+        owm(28, 27, 804);
+
+        Map<String, int[]> groups = new HashMap<String, int[]>();
+        groups.put("Thunderstorm", new int[]{37, 47});
+        groups.put("Drizzle", new int[]{9, 45});
+        groups.put("Rain", new int[]{40, 45});
+        groups.put("Snow", new int[]{41, 46});
+        groups.put("Mist", new int[]{11, 11});
+        groups.put("Smoke", new int[]{22, 22});
+        groups.put("Haze", new int[]{21, 21});
+        groups.put("Dust", new int[]{19, 19});
+        groups.put("Fog", new int[]{20, 20});
+        groups.put("Sand", new int[]{19, 19});
+        groups.put("Ash", new int[]{22, 22});
+        groups.put("Squall", new int[]{35, 35});
+        groups.put("Tornado", new int[]{23, 24});
+        groups.put("Clear", new int[]{32, 31});
+        groups.put("Clouds", new int[]{26, 26});
+        owmGroups = Collections.unmodifiableMap(groups);
+
+        for (int code = 0; code < CodeCount; code++) {
+            forceDay[code] = code;
+            forceNight[code] = code;
+        }
+        force(forceDay, 23, 24, 27, 28, 29, 30, 31, 32, 33, 34, 47, 37, 45, 39, 46, 41);
+        force(forceNight, 24, 23, 28, 27, 30, 29, 32, 31, 34, 33, 36, 31, 37, 47, 38, 47, 39, 45, 41, 46);
+
+        String[] names = {
+                "Tornado", "Tropical Storm", "Hurricane", "Severe Thunderstorms", "Thunderstorms",
+                "Mixed Rain and Snow", "Mixed Rain and Sleet", "Mixed Snow and Sleet", "Freezing Drizzle", "Drizzle",
+                "Freezing Rain", "Showers", "Showers", "Snow Flurries", "Light Snow Showers",
+                "Blowing Snow", "Snow", "Hail", "Sleet", "Dust",
+                "Foggy", "Haze", "Smoky", "Blustery", "Windy",
+                "Cold", "Cloudy", "Mostly Cloudy", "Mostly Cloudy", "Partly Cloudy",
+                "Partly Cloudy", "Clear", "Sunny", "Fair", "Fair",
+                "Mixed Rain and Hail", "Hot", "Isolated Thunderstorms", "Scattered Thunderstorms", "Scattered Thunderstorms",
+                "Scattered Showers", "Snow", "Scattered Snow Showers", "Heavy Snow", "Partly Cloudy",
+                "Thundershowers", "Snow Showers", "Isolated Thundershowers"};
+        System.arraycopy(names, 0, text, 0, CodeCount);
+    }
+
+    private static void owm(int day, int night, int... ids) {
+        for (int id : ids) {
+            owmDay[id - minOwmId] = day;
+            owmNight[id - minOwmId] = night;
+        }
+    }
+
+    //pairs of from, to
+    private static void force(int[] table, int... pairs) {
+        for (int i = 0; i < pairs.length; i += 2) {
+            table[pairs[i]] = pairs[i + 1];
+        }
+    }
+
+    /**
+     * Returns the 0-47 code for an OWM condition id, or Unknown
+     */
+    public static int fromOwmId(int id, boolean night) {
+        if (id < minOwmId || id > maxOwmId) {
+            return Unknown;
+        }
+        return night ? owmNight[id - minOwmId] : owmDay[id - minOwmId];
+    }
+
+    /**
+     * Returns the 0-47 code for an OWM condition id (or group name) as found in the json, or Unknown
+     */
+    public static int fromOwmName(String name, boolean night) {
+        if (name == null || name.isEmpty()) {
+            return Unknown;
+        }
+        //ids are read in place so no Integer parsing or boxing is needed
+        int id = 0;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9' || i > 3) {
+                int[] group = owmGroups.get(name);
+                return group == null ? Unknown : group[night ? 1 : 0];
+            }
+            id = id * 10 + (c - '0');
+        }
+        return fromOwmId(id, night);
+    }
+
+    public static int forceDay(int code) {
+        return isValid(code) ? forceDay[code] : code;
+    }
+
+    public static int forceNight(int code) {
+        return isValid(code) ? forceNight[code] : code;
+    }
+
+    /**
+     * Returns the text for the code, or null if the code is not known
+     */
+    public static String getText(int code) {
+        if (isValid(code)) {
+            return text[code];
+        }
+        if (code == Unknown || code == NotAvailable) {
+            return "Unknown";
+        }
+        return null;
+    }
+
+    public static boolean isValid(int code) {
+        return code >= 0 && code < CodeCount;
+    }
+}
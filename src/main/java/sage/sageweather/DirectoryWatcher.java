@@ -0,0 +1,198 @@
+package sageweather;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Tells in-memory indexes of skin directories when the files on disk change
+ *  - a root and its direct sub directories are watched (Backgrounds/&lt;code&gt;, Icons/&lt;set&gt;) and new sub
+ *    directories are picked up as they are created
+ *  - changes are collected until the directory has been quiet for a moment so copying a whole folder in
+ *    causes one rebuild
+ *  - a root that does not exist yet (or cannot be watched) is retried every minute and reported as changed
+ *    once it appears
+ *  - when the platform has no file watching every root is reported as changed each minute instead
+ *  - one daemon thread serves every root
+ */
+public class DirectoryWatcher {
+    private static final long settleMS = 500;
+    private static final long retryMS = 60 * 1000;
+    private static DirectoryWatcher instance = null;
+
+    /**
+     * Called on the watcher thread after files under a watched root changed
+     */
+    public interface Listener {
+        void directoryChanged(File root);
+    }
+
+    private final WatchService service;
+    private final ConcurrentHashMap<WatchKey, File> keys = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<File, Listener> listeners = new ConcurrentHashMap<>();
+    private final Set<File> pending = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+    private Thread thread = null;
+
+    private DirectoryWatcher() {
+        WatchService tService = null;
+        try {
+            tService = FileSystems.getDefault().newWatchService();
+        } catch (IOException e) {
+            Log.info("DirectoryWatcher","DirectoryWatcher: constructor - file watching not available - directories will be rescanned every minute : " + e);
+        }
+        this.service = tService;
+    }
+
+    public static synchronized DirectoryWatcher getInstance() {
+        if (instance == null) {
+            instance = new DirectoryWatcher();
+        }
+        return instance;
+    }
+
+    /**
+     * Starts reporting changes under root to the listener
+     *
+     * @return true if the root is being watched now, false if it will be retried
+     */
+    public boolean watch(File root, Listener listener) {
+        listeners.put(root, listener);
+        boolean watched = register(root);
+        if (!watched) {
+            pending.add(root);
+        }
+        start();
+        return watched;
+    }
+
+    public void unwatch(File root) {
+        listeners.remove(root);
+        pending.remove(root);
+        for (Map.Entry<WatchKey, File> entry : keys.entrySet()) {
+            if (entry.getValue().equals(root)) {
+                entry.getKey().cancel();
+                keys.remove(entry.getKey());
+            }
+        }
+    }
+
+    private boolean register(File root) {
+        if (service == null || !root.isDirectory()) {
+            return false;
+        }
+        try {
+            registerDir(root, root);
+            File[] children = root.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    if (child.isDirectory()) {
+                        registerDir(child, root);
+                    }
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            Log.info("DirectoryWatcher","DirectoryWatcher: register - unable to watch '" + root + "' : " + e);
+            return false;
+        }
+    }
+
+    private void registerDir(File dir, File root) throws IOException {
+        keys.put(dir.toPath().register(service, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), root);
+    }
+
+    private synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watchLoop();
+            }
+        }, "GWeather-DirectoryWatcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void watchLoop() {
+        while (true) {
+            Set<File> changed = new HashSet<>();
+            try {
+                WatchKey key;
+                if (service == null) {
+                    Thread.sleep(retryMS);
+                    key = null;
+                } else {
+                    key = service.poll(retryMS, TimeUnit.MILLISECONDS);
+                }
+                //drain everything that arrives until the directories settle
+                while (key != null) {
+                    handle(key, changed);
+                    key = service.poll(settleMS, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (ClosedWatchServiceException e) {
+                return;
+            }
+            for (File root : pending) {
+                if (!listeners.containsKey(root)) {
+                    pending.remove(root);
+                } else if (register(root)) {
+                    pending.remove(root);
+                    changed.add(root);
+                } else if (service == null) {
+                    //nothing tells us about changes so rescan on every retry
+                    changed.add(root);
+                }
+            }
+            for (File root : changed) {
+                Listener listener = listeners.get(root);
+                if (listener == null) {
+                    continue;
+                }
+                try {
+                    listener.directoryChanged(root);
+                } catch (RuntimeException e) {
+                    Log.info("DirectoryWatcher","DirectoryWatcher: watchLoop - listener for '" + root + "' failed : " + e);
+                }
+            }
+        }
+    }
+
+    private void handle(WatchKey key, Set<File> changed) {
+        File root = keys.get(key);
+        Path dir = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (root == null) {
+                continue;
+            }
+            changed.add(root);
+            //pick up new sub directories of the root so files copied into them are seen too
+            if (event.kind() == ENTRY_CREATE && dir.equals(root.toPath())) {
+                Path created = dir.resolve((Path) event.context());
+                if (Files.isDirectory(created)) {
+                    try {
+                        registerDir(created.toFile(), root);
+                    } catch (IOException e) {
+                        Log.info("DirectoryWatcher","DirectoryWatcher: handle - unable to watch '" + created + "' : " + e);
+                    }
+                }
+            }
+        }
+        if (!key.reset()) {
+            keys.remove(key);
+            if (root != null && dir.equals(root.toPath())) {
+                //the root itself went away - wait for it to come back
+                pending.add(root);
+                changed.add(root);
+            }
+        }
+    }
+}
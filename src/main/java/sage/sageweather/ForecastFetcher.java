@@ -0,0 +1,100 @@
+package sageweather;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Fetches and parses the OpenWeatherMap onecall forecast for a location
+ *  - requests are shared process wide by rounded lat/lon and units so every OWM instance (and any
+ *    duplicate locations) waiting on the same place gets the one parsed result
+ *  - a completed result is also handed to callers that arrive shortly after it finished, which covers
+ *    several UI sessions opening the weather screen at once after a restart
+ *  - calls to the provider are admitted by ApiQuota at the priority of the first caller
+ */
+public class ForecastFetcher {
+    //4 decimal places is roughly 11m which is far finer than the forecast grid
+    private static final double coordinateScale = 10000.0;
+    private static final long shareWindowMS = 60 * 1000;
+    private static final String onecallPath = "data/3.0/onecall?";
+
+    private static final SingleFlight<String, OWMWeatherJsonHandler> inFlight = new SingleFlight<>();
+    private static final ConcurrentHashMap<String, Shared> recent = new ConcurrentHashMap<>();
+
+    private static class Shared {
+        private final OWMWeatherJsonHandler handler;
+        private final long fetchedAt;
+
+        private Shared(OWMWeatherJsonHandler handler, long fetchedAt) {
+            this.handler = handler;
+            this.fetchedAt = fetchedAt;
+        }
+
+        private boolean isCurrent() {
+            return System.currentTimeMillis() - fetchedAt < shareWindowMS;
+        }
+    }
+
+    /**
+     * Returns the parsed forecast for a location, joining any fetch already running for the same place
+     */
+    public static OWMWeatherJsonHandler fetch(double latitude, double longitude, IWeatherLocation.Units units) throws Exception {
+        return fetch(latitude, longitude, units, ApiQuota.Priority.Location);
+    }
+    public static OWMWeatherJsonHandler fetch(final double latitude, final double longitude, final IWeatherLocation.Units units, final ApiQuota.Priority priority) throws Exception {
+        final String key = getKey(latitude, longitude, units);
+        Shared shared = recent.get(key);
+        if (shared != null) {
+            if (shared.isCurrent()) {
+                if (Log.isInfoEnabled("ForecastFetcher")) {
+                    Log.info("ForecastFetcher","ForecastFetcher: fetch - sharing result fetched " + (System.currentTimeMillis() - shared.fetchedAt) + "ms ago for '" + key + "'");
+                }
+                return shared.handler;
+            }
+            recent.remove(key, shared);
+        }
+        return inFlight.call(key, new Callable<OWMWeatherJsonHandler>() {
+            @Override
+            public OWMWeatherJsonHandler call() throws Exception {
+                OWMWeatherJsonHandler handler = new OWMWeatherJsonHandler();
+                handler.parse(getUrl(latitude, longitude, units), units, priority);
+                recent.put(key, new Shared(handler, System.currentTimeMillis()));
+                return handler;
+            }
+        });
+    }
+
+    public static String getUrl(double latitude, double longitude, IWeatherLocation.Units units) {
+        String urlLocation = "lat=" + latitude + "&lon=" + longitude;
+        //String urlUnits = "&units=" + utils.encode(units);
+        String urlUnits = "&units=" + (units == IWeatherLocation.Units.Metric ? "metric" : "imperial");
+
+        //check for user key from the weather config or OWM.properties
+        //if not found the developer key is used and ApiQuota keeps it to a few calls a day
+        String urlExclude = "&exclude=hourly,alerts,minutely";
+        String urlAPIKey = "&appid=" + utils.getAPIKey();
+        //String rssUrl = "https://api.darksky.net/forecast/" + utils.encode(k) + "/" + urlLocation + "?" + urlUnits;
+        String rssUrl = utils.getApiBaseUrl() + onecallPath + urlLocation + urlExclude + urlUnits + urlAPIKey;
+        if (Log.isInfoEnabled("ForecastFetcher")) {
+            Log.info("ForecastFetcher","OWM: update - Getting OWM Weather - url = '" + WeatherHttpClient.stripKey(rssUrl) + "'");
+        }
+        return rssUrl;
+    }
+
+    /**
+     * Returns the circuit breaker guarding the forecast provider
+     */
+    public static CircuitBreaker getBreaker() {
+        return CircuitBreaker.forUrl(utils.getApiBaseUrl());
+    }
+
+    /**
+     * Drops any recently shared results so the next fetch goes to the provider (or response cache)
+     */
+    public static void clear() {
+        recent.clear();
+    }
+
+    static String getKey(double latitude, double longitude, IWeatherLocation.Units units) {
+        return Math.round(latitude * coordinateScale) + "," + Math.round(longitude * coordinateScale) + "," + units;
+    }
+}
@@ -0,0 +1,431 @@
+package sageweather;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * Fixed layout binary file of forecast snapshots, memory mapped, with one slot per location
+ *  - every slot is the same size so a location is read or written without touching any other slot
+ *  - each slot starts with a sequence number that is odd while the slot is being written - readers
+ *    retry until they see the same even number before and after copying the slot
+ *  - writers also hold a file lock on the slot so other processes sharing the file do not interleave, and
+ *    a lock on the whole file while a slot is claimed or freed so two processes never claim the same slot
+ *  - a slot is only read or written while it carries the location's id, a slot freed or reused by another
+ *    process sends the caller back to the slot headers
+ *  - the header carries a version and the slot layout sizes, a file with a different layout is started again
+ *
+ * Layout (big endian)
+ *  header  : magic int, version int, slotSize int, periodSize int, maxDays int, padding to 64 bytes
+ *  slot    : seq long, id length byte, id (31 bytes), units byte, day count byte, recordedDate long,
+ *            lastUpdated long, padding to 64 bytes, then the current period and maxDays day/night periods
+ *  period  : longs date/dayStart/dayEnd, ints temp/code/windDir/windSpeed/feelsLike/pressureDir/moonPhase/
+ *            visibility, bytes type/precipType, then fixed width strings (length byte, 255 for null)
+ */
+public class ForecastFile implements Closeable {
+    private static final int magic = 0x47574631; //GWF1
+    private static final int version = 1;
+    private static final int headerSize = 64;
+    private static final int slotHeaderSize = 64;
+    private static final int maxIdBytes = 31;
+    private static final int periodSize = 256;
+    public static final int maxDays = 8;
+    private static final int slotSize = slotHeaderSize + periodSize * (1 + maxDays * 2);
+    private static final int growSlots = 32;
+    private static final int maxReadAttempts = 100;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final long noDate = Long.MIN_VALUE;
+    private static final int nullString = 255;
+
+    //widths of the string fields in a period, in the order they are stored
+    private static final int[] stringWidths = new int[]{24, 8, 8, 16, 8, 8, 8, 8, 8, 8, 8, 48};
+
+    private static final IWeatherLocation.Units[] unitValues = IWeatherLocation.Units.values();
+    private static final IForecastPeriod.Type[] typeValues = IForecastPeriod.Type.values();
+    private static final IForecastPeriod.PrecipType[] precipValues = IForecastPeriod.PrecipType.values();
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private MappedByteBuffer map;
+    private int slots;
+    //locationID to slot number, built from the slot headers when the file is opened
+    private final Map<String, Integer> index = new HashMap<>();
+    private final BitSet used = new BitSet();
+
+    public ForecastFile(File file) throws IOException {
+        this.file = file;
+        if (file.getParentFile() != null && !file.getParentFile().isDirectory()) {
+            file.getParentFile().mkdirs();
+        }
+        this.raf = new RandomAccessFile(file, "rw");
+        this.channel = raf.getChannel();
+        FileLock lock = channel.lock();
+        try {
+            if (!hasValidHeader()) {
+                Log.info("ForecastFile","ForecastFile: open - starting a new forecast file '" + file + "'");
+                raf.setLength(0);
+                raf.setLength(headerSize + (long) slotSize * growSlots);
+                map();
+                map.putInt(0, magic);
+                map.putInt(4, version);
+                map.putInt(8, slotSize);
+                map.putInt(12, periodSize);
+                map.putInt(16, maxDays);
+            } else {
+                map();
+            }
+        } finally {
+            lock.release();
+        }
+        buildIndex();
+    }
+
+    private boolean hasValidHeader() throws IOException {
+        if (raf.length() < headerSize + slotSize) {
+            return false;
+        }
+        raf.seek(0);
+        return raf.readInt() == magic && raf.readInt() == version && raf.readInt() == slotSize
+                && raf.readInt() == periodSize && raf.readInt() == maxDays;
+    }
+
+    private void map() throws IOException {
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        slots = (int) ((channel.size() - headerSize) / slotSize);
+    }
+
+    private void buildIndex() {
+        index.clear();
+        used.clear();
+        for (int slot = 0; slot < slots; slot++) {
+            String id = readId(slot);
+            if (id != null) {
+                index.put(id, slot);
+                used.set(slot);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of locations stored
+     */
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * Decodes the snapshot for one location, or returns null if it is not stored
+     */
+    public synchronized ForecastSnapshot read(String locationID) throws IOException {
+        Integer slot = index.get(locationID);
+        if (slot == null) {
+            //another process may have added it since the index was built
+            refresh();
+            slot = index.get(locationID);
+            if (slot == null) {
+                return null;
+            }
+        }
+        int base = slotOffset(slot);
+        for (int attempt = 0; attempt < maxReadAttempts; attempt++) {
+            long before = map.getLong(base);
+            if ((before & 1) != 0) {
+                Thread.yield();
+                continue;
+            }
+            if (!locationID.equals(readId(slot))) {
+                if (map.getLong(base) != before) {
+                    continue;
+                }
+                //another process freed the slot or gave it to another location
+                refresh();
+                slot = index.get(locationID);
+                if (slot == null) {
+                    return null;
+                }
+                base = slotOffset(slot);
+                continue;
+            }
+            ForecastSnapshot snapshot = decode(base, locationID);
+            if (map.getLong(base) == before) {
+                return snapshot;
+            }
+        }
+        throw new IOException("Forecast slot for '" + locationID + "' kept changing while being read");
+    }
+
+    /**
+     * Stores the snapshot for a location in its slot, replacing what was there
+     */
+    public synchronized void write(String locationID, ForecastSnapshot snapshot) throws IOException {
+        byte[] id = locationID.getBytes(UTF8);
+        if (id.length > maxIdBytes) {
+            throw new IOException("Location id '" + locationID + "' is too long for the forecast file");
+        }
+        Integer slot = index.get(locationID);
+        if (slot != null) {
+            FileLock lock = channel.lock(slotOffset(slot), slotSize, false);
+            try {
+                //the slot is only ours if it still carries our id now no other process can change it
+                if (locationID.equals(readId(slot))) {
+                    writeSlot(slot, id, snapshot);
+                    return;
+                }
+            } finally {
+                lock.release();
+            }
+        }
+        //claiming a slot needs the whole file so two processes cannot both pick the same free slot
+        FileLock lock = channel.lock();
+        try {
+            refresh();
+            slot = index.get(locationID);
+            if (slot == null) {
+                slot = used.nextClearBit(0);
+                if (slot >= slots) {
+                    grow();
+                }
+                index.put(locationID, slot);
+                used.set(slot);
+            }
+            writeSlot(slot, id, snapshot);
+        } finally {
+            lock.release();
+        }
+    }
+
+    //caller holds a lock covering the slot
+    private void writeSlot(int slot, byte[] id, ForecastSnapshot snapshot) {
+        int base = slotOffset(slot);
+        long seq = map.getLong(base);
+        map.putLong(base, seq | 1);
+        map.put(base + 8, (byte) id.length);
+        for (int i = 0; i < maxIdBytes; i++) {
+            map.put(base + 9 + i, i < id.length ? id[i] : 0);
+        }
+        encode(base, snapshot);
+        map.putLong(base, (seq | 1) + 1);
+    }
+
+    /**
+     * Frees the slot for a location
+     */
+    public synchronized void remove(String locationID) throws IOException {
+        FileLock lock = channel.lock();
+        try {
+            //the slot may have moved if another process removed and added locations
+            refresh();
+            Integer slot = index.remove(locationID);
+            if (slot == null) {
+                return;
+            }
+            used.clear(slot);
+            int base = slotOffset(slot);
+            long seq = map.getLong(base);
+            map.putLong(base, seq | 1);
+            map.put(base + 8, (byte) 0);
+            map.putLong(base, (seq | 1) + 1);
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Writes dirty pages to disk
+     */
+    public synchronized void force() {
+        map.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        map.force();
+        channel.close();
+        raf.close();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    private void refresh() throws IOException {
+        if (channel.size() != map.capacity()) {
+            map();
+        }
+        buildIndex();
+    }
+
+    //caller holds the file lock
+    private void grow() throws IOException {
+        //another process may already have grown it
+        long size = Math.max(channel.size(), headerSize + (long) slotSize * (slots + growSlots));
+        raf.setLength(size);
+        map();
+        Log.info("ForecastFile","ForecastFile: grow - room for " + slots + " locations");
+    }
+
+    private int slotOffset(int slot) {
+        return headerSize + slot * slotSize;
+    }
+
+    private String readId(int slot) {
+        int base = slotOffset(slot);
+        int length = map.get(base + 8) & 0xFF;
+        if (length == 0 || length > maxIdBytes) {
+            return null;
+        }
+        byte[] id = new byte[length];
+        for (int i = 0; i < length; i++) {
+            id[i] = map.get(base + 9 + i);
+        }
+        return new String(id, UTF8);
+    }
+
+    private void encode(int base, ForecastSnapshot snapshot) {
+        List<ILongRangeForecast> days = snapshot.getDays();
+        int dayCount = Math.min(maxDays, days.size());
+        map.put(base + 40, (byte) (snapshot.getUnits() == null ? -1 : snapshot.getUnits().ordinal()));
+        map.put(base + 41, (byte) dayCount);
+        map.putLong(base + 42, toLong(snapshot.getRecordedDate()));
+        map.putLong(base + 50, toLong(snapshot.getLastUpdated()));
+        int offset = base + slotHeaderSize;
+        encodePeriod(offset, snapshot.getCurrent());
+        for (int i = 0; i < dayCount; i++) {
+            offset += periodSize;
+            encodePeriod(offset, (ForecastPeriod) days.get(i).getForecastPeriodDay());
+            offset += periodSize;
+            encodePeriod(offset, (ForecastPeriod) days.get(i).getForecastPeriodNight());
+        }
+    }
+
+    private ForecastSnapshot decode(int base, String locationID) {
+        byte units = map.get(base + 40);
+        int dayCount = Math.min(maxDays, map.get(base + 41) & 0xFF);
+        Date recordedDate = toDate(map.getLong(base + 42));
+        Date lastUpdated = toDate(map.getLong(base + 50));
+        int offset = base + slotHeaderSize;
+        ForecastPeriod current = decodePeriod(offset);
+        List<ILongRangeForecast> days = new ArrayList<ILongRangeForecast>(dayCount);
+        for (int i = 0; i < dayCount; i++) {
+            LongRangForecast day = new LongRangForecast();
+            offset += periodSize;
+            day.setForecastPeriodDay(decodePeriod(offset));
+            offset += periodSize;
+            day.setForecastPeriodNight(decodePeriod(offset));
+            days.add(day);
+        }
+        return new ForecastSnapshot(units < 0 || units >= unitValues.length ? null : unitValues[units], current, days, recordedDate, lastUpdated);
+    }
+
+    private void encodePeriod(int offset, ForecastPeriod period) {
+        if (period == null) {
+            //a period with no type marks a missing period
+            map.put(offset + 56, (byte) -1);
+            return;
+        }
+        map.putLong(offset, toLong(period.getDate()));
+        map.putLong(offset + 8, period.getDayStart());
+        map.putLong(offset + 16, period.getDayEnd());
+        map.putInt(offset + 24, period.getTemp());
+        map.putInt(offset + 28, period.getCode());
+        map.putInt(offset + 32, period.getWindDir());
+        map.putInt(offset + 36, period.getWindSpeed());
+        map.putInt(offset + 40, period.getFeelsLike());
+        map.putInt(offset + 44, period.getPressureDir());
+        map.putInt(offset + 48, period.getMoonPhase());
+        map.putInt(offset + 52, period.getVisibility());
+        map.put(offset + 56, (byte) (period.getType() == null ? -2 : period.getType().ordinal()));
+        map.put(offset + 57, (byte) (period.getPrecipType() == null ? -1 : period.getPrecipType().ordinal()));
+        String[] strings = new String[]{period.getCondition(), period.getHumid(), period.getPrecip(), period.getPrecipAccumulation(),
+                period.getCloudCover(), period.getWindDirText(), period.getDewPoint(), period.getPressure(), period.getSunrise(),
+                period.getSunset(), period.getUVIndex(), period.getDescription()};
+        int stringOffset = offset + 58;
+        for (int i = 0; i < strings.length; i++) {
+            putString(stringOffset, stringWidths[i], strings[i]);
+            stringOffset += 1 + stringWidths[i];
+        }
+    }
+
+    private ForecastPeriod decodePeriod(int offset) {
+        byte type = map.get(offset + 56);
+        if (type == -1) {
+            return null;
+        }
+        ForecastPeriod period = new ForecastPeriod();
+        period.setDate(toDate(map.getLong(offset)));
+        period.setDayStart(map.getLong(offset + 8));
+        period.setDayEnd(map.getLong(offset + 16));
+        period.setTemp(map.getInt(offset + 24));
+        period.setCode(map.getInt(offset + 28));
+        period.setWindDir(map.getInt(offset + 32));
+        period.setWindSpeed(map.getInt(offset + 36));
+        period.setFeelsLike(map.getInt(offset + 40));
+        period.setPressureDir(map.getInt(offset + 44));
+        period.setMoonPhase(map.getInt(offset + 48));
+        period.setVisibility(map.getInt(offset + 52));
+        period.setType(type < 0 || type >= typeValues.length ? null : typeValues[type]);
+        byte precipType = map.get(offset + 57);
+        period.setPrecipType(precipType < 0 || precipType >= precipValues.length ? null : precipValues[precipType]);
+        int stringOffset = offset + 58;
+        String[] strings = new String[stringWidths.length];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = getString(stringOffset, stringWidths[i]);
+            stringOffset += 1 + stringWidths[i];
+        }
+        period.setCondition(strings[0]);
+        period.setHumid(strings[1]);
+        period.setPrecip(strings[2]);
+        period.setPrecipAccumulation(strings[3]);
+        period.setCloudCover(strings[4]);
+        period.setWindDirText(strings[5]);
+        period.setDewPoint(strings[6]);
+        period.setPressure(strings[7]);
+        period.setSunrise(strings[8]);
+        period.setSunset(strings[9]);
+        period.setUVIndex(strings[10]);
+        period.setDescription(strings[11]);
+        return period;
+    }
+
+    private void putString(int offset, int width, String value) {
+        if (value == null) {
+            map.put(offset, (byte) nullString);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF8);
+        int length = Math.min(bytes.length, width);
+        //do not cut a multi byte character in half
+        while (length > 0 && length < bytes.length && (bytes[length] & 0xC0) == 0x80) {
+            length--;
+        }
+        map.put(offset, (byte) length);
+        for (int i = 0; i < length; i++) {
+            map.put(offset + 1 + i, bytes[i]);
+        }
+    }
+
+    private String getString(int offset, int width) {
+        int length = map.get(offset) & 0xFF;
+        if (length == nullString) {
+            return null;
+        }
+        length = Math.min(length, width);
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = map.get(offset + 1 + i);
+        }
+        return new String(bytes, UTF8);
+    }
+
+    private static long toLong(Date date) {
+        return date == null ? noDate : date.getTime();
+    }
+
+    private static Date toDate(long value) {
+        return value == noDate ? null : new Date(value);
+    }
+}
@@ -0,0 +1,90 @@
+package sageweather;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The weather for one location as fetched at one time
+ *  - holds the current period and the daily forecasts together with when they were recorded and fetched
+ *  - saved by ForecastStore so a restart can show the last good weather straight away
+ *  - never changed once created, OWMWeatherLocation swaps in a new snapshot on each update so readers
+ *    always see one whole update - the periods must not be changed after they are handed over
+ */
+public class ForecastSnapshot implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final IWeatherLocation.Units units;
+    private final ForecastPeriod current;
+    private final List<ILongRangeForecast> days;
+    private final Date recordedDate;
+    private final Date lastUpdated;
+    private transient volatile ForecastView view;
+
+    public ForecastSnapshot(IWeatherLocation.Units units, ForecastPeriod current, List<ILongRangeForecast> days, Date recordedDate, Date lastUpdated) {
+        this.units = units;
+        this.current = current;
+        this.days = days == null ? Collections.<ILongRangeForecast>emptyList() : Collections.unmodifiableList(new ArrayList<ILongRangeForecast>(days));
+        this.recordedDate = recordedDate;
+        this.lastUpdated = lastUpdated;
+    }
+
+    public IWeatherLocation.Units getUnits() {
+        return units;
+    }
+
+    public ForecastPeriod getCurrent() {
+        return current;
+    }
+
+    public List<ILongRangeForecast> getDays() {
+        return days;
+    }
+
+    public Date getRecordedDate() {
+        return recordedDate;
+    }
+
+    public Date getLastUpdated() {
+        return lastUpdated;
+    }
+
+    /**
+     * Returns the derived lists and flags for this snapshot, worked out on first use
+     */
+    public ForecastView getView() {
+        ForecastView current = view;
+        if (current == null) {
+            //a race only builds the same view twice
+            current = new ForecastView(this);
+            view = current;
+        }
+        return current;
+    }
+
+    /**
+     * Returns a copy with no lastUpdated so it is shown until replaced but is due for update straight away
+     */
+    public ForecastSnapshot expired() {
+        return new ForecastSnapshot(units, current, days, recordedDate, null);
+    }
+
+    /**
+     * Returns the age of the snapshot in ms
+     */
+    public long getAge() {
+        return lastUpdated == null ? Long.MAX_VALUE : System.currentTimeMillis() - lastUpdated.getTime();
+    }
+
+    @Override
+    public String toString() {
+        return "ForecastSnapshot{" +
+                "units=" + units +
+                ", recordedDate=" + recordedDate +
+                ", lastUpdated=" + lastUpdated +
+                ", days=" + days.size() +
+                '}';
+    }
+}
@@ -0,0 +1,91 @@
+package sageweather;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Saves the last good forecast snapshot for each location so a restart can show it straight away
+ *  - snapshots are kept in a single memory mapped ForecastFile in the weather cache folder with one slot
+ *    per locationID, so loading one location does not read any other and the file can be shared with
+ *    other processes
+ *  - snapshots older than MaxSnapshotAge (hours) are not loaded as the forecast is no longer useful
+ */
+public class ForecastStore {
+    public static final String maxSnapshotAgeKey = Const.BaseProp + Const.PropDivider + Const.WeatherProp + Const.PropDivider + "MaxSnapshotAge";
+    public static final int defaultMaxSnapshotAge = 24; // hours
+    private static final String forecastFileName = "forecasts.gwf";
+
+    private static ForecastFile forecastFile = null;
+    private static boolean openFailed = false;
+
+    /**
+     * Returns the saved snapshot for a location, or null if there is none that can be used
+     */
+    public static ForecastSnapshot load(String locationID) {
+        ForecastFile store = getFile();
+        if (locationID == null || store == null) {
+            return null;
+        }
+        try {
+            ForecastSnapshot snapshot = store.read(locationID);
+            if (snapshot == null) {
+                return null;
+            }
+            if (snapshot.getAge() > getMaxAgeMS()) {
+                Log.info("ForecastStore","ForecastStore: load - snapshot for '" + locationID + "' is too old to use - " + snapshot);
+                return null;
+            }
+            Log.info("ForecastStore","ForecastStore: load - loaded '" + locationID + "' - " + snapshot);
+            return snapshot;
+        } catch (IOException e) {
+            Log.info("ForecastStore","ForecastStore: load - unable to read snapshot for '" + locationID + "' : " + e);
+            return null;
+        }
+    }
+
+    public static void save(String locationID, ForecastSnapshot snapshot) {
+        ForecastFile store = getFile();
+        if (locationID == null || snapshot == null || store == null) {
+            return;
+        }
+        try {
+            store.write(locationID, snapshot);
+        } catch (IOException e) {
+            Log.info("ForecastStore","ForecastStore: save - unable to save snapshot for '" + locationID + "' : " + e);
+        }
+    }
+
+    public static void remove(String locationID) {
+        ForecastFile store = getFile();
+        if (locationID == null || store == null) {
+            return;
+        }
+        try {
+            store.remove(locationID);
+        } catch (IOException e) {
+            Log.info("ForecastStore","ForecastStore: remove - unable to remove snapshot for '" + locationID + "' : " + e);
+        }
+    }
+
+    private static synchronized ForecastFile getFile() {
+        if (forecastFile == null && !openFailed) {
+            File file = new File(utils.GetWeatherCacheDir(), forecastFileName);
+            try {
+                forecastFile = new ForecastFile(file);
+            } catch (IOException e) {
+                //carry on without warm starts rather than failing every update
+                openFailed = true;
+                Log.info("ForecastStore","ForecastStore: unable to open '" + file + "' - snapshots will not be saved : " + e);
+            }
+        }
+        return forecastFile;
+    }
+
+    private static long getMaxAgeMS() {
+        int hours = defaultMaxSnapshotAge;
+        if (OWM.wProps != null) {
+            hours = utils.GetServerPropertyAsInteger(maxSnapshotAgeKey, defaultMaxSnapshotAge);
+        }
+        return hours * 60 * 60 * 1000L;
+    }
+}
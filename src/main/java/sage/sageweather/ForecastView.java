@@ -0,0 +1,160 @@
+package sageweather;
+
+import java.util.*;
+
+/**
+ * Everything the OWM getters derive from a forecast snapshot, worked out once per snapshot
+ *  - the flattened day/night period list, per day lookups and the layout flags used by the forecast screens
+ *  - lists handed out are shared and unmodifiable so repeated getter calls do not allocate
+ *  - built the first time a snapshot is read through ForecastSnapshot.getView()
+ */
+public class ForecastView {
+    public static final ForecastView EMPTY = new ForecastView(null);
+
+    private final List<ILongRangeForecast> days;
+    private final List<IForecastPeriod> periods;
+    private final IForecastPeriod[] dayPeriods;
+    private final IForecastPeriod[] nightPeriods;
+    private final IForecastPeriod[] singlePeriods;
+    //prefix views for the Max variants of the getters - index n holds the first n entries
+    private final List<List<IForecastPeriod>> periodPrefixes;
+    private final List<List<ILongRangeForecast>> dayPrefixes;
+    private final Map<IForecastPeriod, Integer> periodIndex;
+    private final boolean todaysHigh;
+    private final boolean description;
+
+    ForecastView(ForecastSnapshot snapshot) {
+        List<ILongRangeForecast> source = snapshot == null ? Collections.<ILongRangeForecast>emptyList() : snapshot.getDays();
+        int count = source.size();
+        days = source;
+        dayPeriods = new IForecastPeriod[count];
+        nightPeriods = new IForecastPeriod[count];
+        singlePeriods = new IForecastPeriod[count];
+        List<IForecastPeriod> flat = new ArrayList<IForecastPeriod>(count * 2);
+        for (int i = 0; i < count; i++) {
+            ILongRangeForecast lr = source.get(i);
+            dayPeriods[i] = lr.getForecastPeriodDay();
+            nightPeriods[i] = lr.getForecastPeriodNight();
+            singlePeriods[i] = dayPeriods[i] == null ? nightPeriods[i] : dayPeriods[i];
+            if (dayPeriods[i] != null) {
+                flat.add(dayPeriods[i]);
+            }
+            if (nightPeriods[i] != null) {
+                flat.add(nightPeriods[i]);
+            }
+        }
+        periods = Collections.unmodifiableList(flat);
+
+        periodPrefixes = new ArrayList<List<IForecastPeriod>>(periods.size() + 1);
+        for (int i = 0; i <= periods.size(); i++) {
+            periodPrefixes.add(periods.subList(0, i));
+        }
+        dayPrefixes = new ArrayList<List<ILongRangeForecast>>(count + 1);
+        for (int i = 0; i <= count; i++) {
+            dayPrefixes.add(Collections.unmodifiableList(days.subList(0, i)));
+        }
+
+        //identity so equal looking periods on different days keep their own position
+        periodIndex = new IdentityHashMap<IForecastPeriod, Integer>();
+        for (int i = periods.size() - 1; i >= 0; i--) {
+            periodIndex.put(periods.get(i), i);
+        }
+
+        todaysHigh = count > 0 && dayPeriods[0] != null && dayPeriods[0].getTemp() != IForecastPeriod.iInvalid;
+        IForecastPeriod first = periods.isEmpty() ? null : periods.get(0);
+        description = first != null && first.getDescription() != null && !first.getDescription().equals(IForecastPeriod.sNotSupported);
+    }
+
+    public List<ILongRangeForecast> getDays() {
+        return days;
+    }
+
+    public List<ILongRangeForecast> getDays(int max) {
+        return dayPrefixes.get(Math.max(0, Math.min(max, days.size())));
+    }
+
+    public int getDayCount() {
+        return days.size();
+    }
+
+    public ILongRangeForecast getDay(int day) {
+        return day >= 0 && day < days.size() ? days.get(day) : null;
+    }
+
+    public IForecastPeriod getDayPeriod(int day) {
+        return day >= 0 && day < dayPeriods.length ? dayPeriods[day] : null;
+    }
+
+    public IForecastPeriod getNightPeriod(int day) {
+        return day >= 0 && day < nightPeriods.length ? nightPeriods[day] : null;
+    }
+
+    /**
+     * Returns the day period for a day, or the night if there is no day period
+     */
+    public IForecastPeriod getSinglePeriod(int day) {
+        return day >= 0 && day < singlePeriods.length ? singlePeriods[day] : null;
+    }
+
+    public List<IForecastPeriod> getPeriods() {
+        return periods;
+    }
+
+    public List<IForecastPeriod> getPeriods(int max) {
+        return periodPrefixes.get(Math.max(0, Math.min(max, periods.size())));
+    }
+
+    public IForecastPeriod getPeriod(int period) {
+        return period >= 0 && period < periods.size() ? periods.get(period) : null;
+    }
+
+    /**
+     * Returns the position of a period in the flattened list, or -1 if it is not part of this forecast
+     */
+    public int indexOf(IForecastPeriod period) {
+        Integer index = period == null ? null : periodIndex.get(period);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Returns the day number a period belongs to
+     */
+    public int getDayNumber(IForecastPeriod period) {
+        int index = indexOf(period);
+        if (index == -1) {
+            return 0;
+        }
+        return todaysHigh ? index / 2 : (index + 1) / 2;
+    }
+
+    /**
+     * True if the first forecast day has a Day record with a valid High temp
+     */
+    public boolean hasTodaysHigh() {
+        return todaysHigh;
+    }
+
+    /**
+     * True if the forecast periods have a description to show
+     */
+    public boolean hasDescription() {
+        return description;
+    }
+
+    /**
+     * True if there are too few days to fill the normal forecast layout
+     */
+    public boolean hasFewDays() {
+        return days.size() < 3;
+    }
+
+    public int getForecastColumns(boolean forecastExpandFocused) {
+        if (description) {
+            return forecastExpandFocused ? 3 : 5;
+        }
+        if (hasFewDays()) {
+            return 2;
+        }
+        return forecastExpandFocused ? 4 : 5;
+    }
+}
@@ -0,0 +1,180 @@
+package sageweather;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * In-memory catalog of the icon sets under the Weather/Icons directory
+ *  - records which of the 0-47 and "na" icons every set really has so paths can be resolved without
+ *    probing the disk
+ *  - an icon missing from the chosen set comes from the default set instead, then the "na" icon
+ *  - rebuilt by the DirectoryWatcher when sets or icons are added or removed
+ */
+public class IconCatalog implements DirectoryWatcher.Listener {
+    public static final int iconCount = 48;
+    private static final int naBit = iconCount;
+    private static final String iconExt = ".png";
+    private static volatile IconCatalog instance = null;
+
+    private final File root;
+    private volatile Catalog catalog = null;
+
+    private static class Catalog {
+        private final SortedSet<String> names;
+        private final Map<String, BitSet> icons;
+
+        private Catalog(SortedMap<String, BitSet> icons) {
+            this.names = Collections.unmodifiableSortedSet(new TreeSet<String>(icons.keySet()));
+            this.icons = icons;
+        }
+    }
+
+    private IconCatalog(File root) {
+        this.root = root;
+    }
+
+    public static IconCatalog getInstance() {
+        File root = new File(utils.WeatherLocation(), "Icons");
+        //called by every UI getter so only lock when the instance has to be created or replaced
+        IconCatalog current = instance;
+        if (current != null && current.root.equals(root)) {
+            return current;
+        }
+        return replaceInstance(root);
+    }
+
+    private static synchronized IconCatalog replaceInstance(File root) {
+        if (instance == null || !instance.root.equals(root)) {
+            if (instance != null) {
+                DirectoryWatcher.getInstance().unwatch(instance.root);
+            }
+            instance = new IconCatalog(root);
+            DirectoryWatcher.getInstance().watch(root, instance);
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the sorted names of the icon sets found - shared and unmodifiable
+     */
+    public SortedSet<String> getSets() {
+        return getCatalog().names;
+    }
+
+    public boolean hasSet(String set) {
+        return set != null && getCatalog().icons.containsKey(set);
+    }
+
+    /**
+     * Returns true if the set contains the icon (0-47 or "na")
+     */
+    public boolean hasIcon(String set, String icon) {
+        int bit = toBit(icon);
+        if (set == null || bit == -1) {
+            return false;
+        }
+        BitSet available = getCatalog().icons.get(set);
+        return available != null && available.get(bit);
+    }
+
+    /**
+     * Returns the path of the icon in the set, or of the best replacement when the set does not have it
+     *  - the set itself, then the default set, then "na" from the set and the default set
+     *  - if nothing better is known the path in the requested set is returned as before
+     */
+    public String resolve(String set, String icon) {
+        if (hasIcon(set, icon)) {
+            return getPath(set, icon);
+        }
+        if (hasIcon(Const.IconSetDefault, icon)) {
+            return getPath(Const.IconSetDefault, icon);
+        }
+        if (toBit(icon) != -1) {
+            if (hasIcon(set, "na")) {
+                return getPath(set, "na");
+            }
+            if (hasIcon(Const.IconSetDefault, "na")) {
+                return getPath(Const.IconSetDefault, "na");
+            }
+        }
+        return getPath(set, icon);
+    }
+
+    public String getPath(String set) {
+        return root.getPath() + File.separator + set + File.separator;
+    }
+
+    private String getPath(String set, String icon) {
+        return getPath(set) + icon + iconExt;
+    }
+
+    @Override
+    public void directoryChanged(File changedRoot) {
+        Log.info("IconCatalog","IconCatalog: directoryChanged - rebuilding icon sets for '" + root + "'");
+        build();
+    }
+
+    private Catalog getCatalog() {
+        Catalog tCatalog = catalog;
+        if (tCatalog == null) {
+            tCatalog = build();
+        }
+        return tCatalog;
+    }
+
+    private static int toBit(String icon) {
+        if (icon == null) {
+            return -1;
+        }
+        if (icon.equals("na")) {
+            return naBit;
+        }
+        //icons are named 0-47 so no need to go through Integer parsing and its exceptions
+        if (icon.isEmpty() || icon.length() > 2) {
+            return -1;
+        }
+        int number = 0;
+        for (int i = 0; i < icon.length(); i++) {
+            char c = icon.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            number = number * 10 + (c - '0');
+        }
+        return number < iconCount ? number : -1;
+    }
+
+    private synchronized Catalog build() {
+        SortedMap<String, BitSet> icons = new TreeMap<String, BitSet>();
+        File[] sets = root.listFiles();
+        if (sets == null) {
+            Log.info("IconCatalog","IconCatalog: build - no icon sets found - invalid icons location '" + root + "'");
+        } else {
+            for (File set : sets) {
+                if (!set.isDirectory()) {
+                    continue;
+                }
+                BitSet available = new BitSet(iconCount + 1);
+                String[] files = set.list();
+                if (files != null) {
+                    for (String file : files) {
+                        if (file.endsWith(iconExt)) {
+                            int bit = toBit(file.substring(0, file.length() - iconExt.length()));
+                            if (bit != -1) {
+                                available.set(bit);
+                            }
+                        }
+                    }
+                }
+                if (available.cardinality() < iconCount + 1) {
+                    Log.info("IconCatalog","IconCatalog: build - icon set '" + set.getName() + "' is missing " + (iconCount + 1 - available.cardinality()) + " icons - they will come from '" + Const.IconSetDefault + "'");
+                }
+                icons.put(set.getName(), available);
+            }
+            Log.info("IconCatalog","IconCatalog: build - found '" + icons.keySet() + "'");
+        }
+        Catalog tCatalog = new Catalog(icons);
+        catalog = tCatalog;
+        return tCatalog;
+    }
+}
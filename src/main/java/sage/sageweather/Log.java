@@ -1,27 +1,118 @@
 package sageweather;
 
+import org.apache.log4j.*;
+
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * Created by jusjoken on 8/28/2021.
+ *
+ * Logging for the plugin through log4j
+ *  - every caller logs to its own child of the GWeather logger so levels can be set per caller with the
+ *    LogLevel weather property (default for all) and LogLevel/&lt;caller&gt; properties
+ *  - unless the host has configured the GWeather logger itself, output goes to the console through a
+ *    bounded AsyncAppender that drops messages rather than block the caller when it falls behind
+ *  - check isDebugEnabled or isInfoEnabled before building messages on paths called often
  */
 public class Log {
-    private static String DefaultLevel = "INFO";
+    public static final String logLevelKey = Const.BaseProp + Const.PropDivider + Const.WeatherProp + Const.PropDivider + "LogLevel";
+    private static final String DefaultLevel = "INFO";
+    private static final int bufferSize = 512;
+    private static final Logger root = init();
+    private static final ConcurrentHashMap<String, Logger> loggers = new ConcurrentHashMap<>();
+
+    private static Logger init() {
+        Logger logger = Logger.getLogger(Const.LoggerName);
+        if (!logger.getAllAppenders().hasMoreElements()) {
+            ConsoleAppender console = new ConsoleAppender(new PatternLayout("GWEATHER: %p: %c{1}; %m%n"), ConsoleAppender.SYSTEM_OUT);
+            AsyncAppender async = new AsyncAppender();
+            async.setName("GWeatherAsync");
+            async.setBufferSize(bufferSize);
+            async.setBlocking(false);
+            async.addAppender(console);
+            logger.addAppender(async);
+            logger.setAdditivity(false);
+            logger.setLevel(Level.toLevel(DefaultLevel));
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    //flush what is still queued
+                    Logger.getLogger(Const.LoggerName).removeAllAppenders();
+                }
+            }, "GWeather-LogFlush"));
+        }
+        return logger;
+    }
+
+    private static Logger getLogger(String caller) {
+        if (caller == null) {
+            return root;
+        }
+        Logger logger = loggers.get(caller);
+        if (logger == null) {
+            logger = Logger.getLogger(Const.LoggerName + "." + caller);
+            if (OWM.wProps != null) {
+                applyLevel(caller, logger);
+            }
+            loggers.put(caller, logger);
+        }
+        return logger;
+    }
+
+    /**
+     * Applies the LogLevel weather properties - called once the properties are loaded or changed
+     */
+    public static void configure() {
+        if (OWM.wProps == null) {
+            return;
+        }
+        root.setLevel(Level.toLevel(utils.GetServerProperty(logLevelKey, DefaultLevel), Level.INFO));
+        for (String caller : loggers.keySet()) {
+            applyLevel(caller, loggers.get(caller));
+        }
+    }
+
+    private static void applyLevel(String caller, Logger logger) {
+        String level = utils.GetServerProperty(logLevelKey + Const.PropDivider + caller, "");
+        //no level of its own means the caller follows the GWeather logger
+        logger.setLevel(level.isEmpty() ? null : Level.toLevel(level, null));
+    }
+
+    /**
+     * Sets the level for one caller (or all callers when null) until the next configure
+     */
+    public static void setLevel(String caller, String level) {
+        getLogger(caller).setLevel(Level.toLevel(level, null));
+    }
+
+    public static boolean isDebugEnabled(String caller) {
+        return getLogger(caller).isDebugEnabled();
+    }
+
+    public static boolean isInfoEnabled(String caller) {
+        return getLogger(caller).isInfoEnabled();
+    }
 
     public static void info(String message){
         info(null,message);
     }
     public static void info(String caller, String message){
-        logMessage("INFO", caller, message);
+        getLogger(caller).info(message);
     }
 
-    private static void logMessage(String type, String caller, String message){
-        String currentType = DefaultLevel;
-        if(type.equals(currentType) || type.equals("ERROR") || type.equals("INFO") || type.equals("FATAL") || type.equals("WARN")){
-            if(caller == null){
-                System.out.println("GWEATHER: " + type + ": " + message);
-            }else{
-                System.out.println("GWEATHER: " + type + ": " + caller + "; " + message);
-            }
-        }
+    public static void debug(String caller, String message){
+        getLogger(caller).debug(message);
+    }
+
+    public static void warn(String caller, String message){
+        getLogger(caller).warn(message);
+    }
+
+    public static void error(String caller, String message){
+        getLogger(caller).error(message);
+    }
+    public static void error(String caller, String message, Throwable t){
+        getLogger(caller).error(message, t);
     }
 
 }
@@ -1,8 +1,9 @@
 package sageweather;
 
 import java.io.File;
-import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 import java.util.regex.Pattern;
 
 /**
@@ -24,92 +25,7 @@ public class OWM {
 
     private String propFileSuffix = "";
     public static WeatherProperties wProps;
-
-    private static HashMap<Integer, Integer> dayCodeMap = new HashMap<Integer, Integer>();
-
-    static {
-        dayCodeMap.put(23, 24);//
-        dayCodeMap.put(27, 28);//
-        dayCodeMap.put(29, 30);//
-        dayCodeMap.put(31, 32);//
-        dayCodeMap.put(33, 34);//
-        dayCodeMap.put(47, 37);//
-        dayCodeMap.put(45, 39);//
-        dayCodeMap.put(46, 41);//
-    }
-
-    private static HashMap<Integer, Integer> nightCodeMap = new HashMap<Integer, Integer>();
-
-    static {
-        nightCodeMap.put(24, 23);//
-        nightCodeMap.put(28, 27);//
-        nightCodeMap.put(30, 29);//
-        nightCodeMap.put(32, 31);//
-        nightCodeMap.put(34, 33);//
-        nightCodeMap.put(36, 31);//
-        nightCodeMap.put(37, 47);//
-        nightCodeMap.put(38, 47);//
-        nightCodeMap.put(39, 45);//
-        nightCodeMap.put(41, 46);//
-    }
-
-    private static HashMap<Integer, String> codeMap = new HashMap<Integer, String>();
-
-    static {
-        codeMap.put(-1, "Unknown");
-        codeMap.put(0, "Tornado");
-        codeMap.put(1, "Tropical Storm");
-        codeMap.put(2, "Hurricane");
-        codeMap.put(3, "Severe Thunderstorms");
-        codeMap.put(4, "Thunderstorms");
-        codeMap.put(5, "Mixed Rain and Snow");
-        codeMap.put(6, "Mixed Rain and Sleet");
-        codeMap.put(7, "Mixed Snow and Sleet");
-        codeMap.put(8, "Freezing Drizzle");
-        codeMap.put(9, "Drizzle");
-        codeMap.put(10, "Freezing Rain");
-        codeMap.put(11, "Showers");
-        codeMap.put(12, "Showers");
-        codeMap.put(13, "Snow Flurries");
-        codeMap.put(14, "Light Snow Showers");
-        codeMap.put(15, "Blowing Snow");
-        codeMap.put(16, "Snow");
-        codeMap.put(17, "Hail");
-        codeMap.put(18, "Sleet");
-        codeMap.put(19, "Dust");
-        codeMap.put(20, "Foggy");
-        codeMap.put(21, "Haze");
-        codeMap.put(22, "Smoky");
-        codeMap.put(23, "Blustery");
-        codeMap.put(24, "Windy");
-        codeMap.put(25, "Cold");
-        codeMap.put(26, "Cloudy");
-        codeMap.put(27, "Mostly Cloudy"); // night
-        codeMap.put(28, "Mostly Cloudy");
-        codeMap.put(29, "Partly Cloudy"); // night
-        codeMap.put(30, "Partly Cloudy");
-        codeMap.put(31, "Clear"); // night
-        codeMap.put(32, "Sunny");
-        codeMap.put(33, "Fair"); // night
-        codeMap.put(34, "Fair");
-        codeMap.put(35, "Mixed Rain and Hail");
-        codeMap.put(36, "Hot");
-        codeMap.put(37, "Isolated Thunderstorms");
-        codeMap.put(38, "Scattered Thunderstorms");
-        codeMap.put(39, "Scattered Thunderstorms");
-        codeMap.put(40, "Scattered Showers");
-        codeMap.put(41, "Snow");
-        codeMap.put(42, "Scattered Snow Showers");
-        codeMap.put(43, "Heavy Snow");
-        codeMap.put(44, "Partly Cloudy");
-        codeMap.put(45, "Thundershowers");
-        codeMap.put(46, "Snow Showers");
-        codeMap.put(47, "Isolated Thundershowers");
-        codeMap.put(3200, "Unknown");
-    }
-
-    static {
-    }
+    private RefreshScheduler scheduler = null;
 
     /**
      * Public API for OpenWeatherMap
@@ -125,6 +41,8 @@ public class OWM {
 
         this.propFileSuffix = propFileSuffix;
         this.wProps = new WeatherProperties(this.propFileSuffix);
+        Log.configure();
+        WeatherMetrics.register();
         //prep the search parameters
         ClearSearch();
 
@@ -138,10 +56,47 @@ public class OWM {
             Log.info("OWM","OWM: constructor - Locations found and loaded");
         }
 
+        //keep the weather current in the background unless testing which drives updates directly
+        if (RefreshScheduler.isEnabled() && !utils.isTesting()){
+            StartBackgroundRefresh();
+        }
+    }
+
+    /**
+     * Starts refreshing all locations in the background shortly before their weather expires
+     */
+    public synchronized void StartBackgroundRefresh(){
+        if (scheduler==null){
+            scheduler = new RefreshScheduler(this);
+        }
+        scheduler.start();
+    }
+
+    public synchronized void StopBackgroundRefresh(){
+        if (scheduler!=null){
+            scheduler.stop();
+        }
+    }
+
+    public synchronized boolean IsBackgroundRefreshRunning(){
+        return scheduler!=null && scheduler.isRunning();
+    }
+
+    /**
+     * Returns the time in ms the location is next due for a background refresh, 0 if not scheduled
+     */
+    public long GetNextScheduledRefresh(String locationID){
+        RefreshScheduler tScheduler = scheduler;
+        if (tScheduler==null || locationID==null || locationID.isEmpty() || !api.hasLocation(locationID)){
+            return 0;
+        }
+        return tScheduler.getNextRefresh(api.getWeather(locationID));
     }
 
     //reload the properties from the properties file incase it was manually edited
     public void RefreshProps(){
+        //write anything queued first so the reload does not lose it
+        wProps.flush();
         wProps.clear();
         wProps.load();
         api.clear();
@@ -158,11 +113,11 @@ public class OWM {
 
             //load the locations from props to WeatherLocations and return it
             //get all the location keys from the props
-            Map locKeys = wProps.getPropertiesWithPrefix(weatherLocKey);
-            for (Object locKey : locKeys.keySet()){
-                String tkey = weatherLocKey + locKey.toString();
+            for (Map.Entry<String, String> entry : wProps.getPropertiesView(weatherLocKey).entrySet()){
+                String tkey = entry.getKey();
+                String locKey = tkey.substring(weatherLocKey.length());
                 //only process properties that are a locationID then get the remaining properties for that location
-                if (locKey.toString().equals(wProps.getProperty(tkey))){
+                if (locKey.equals(entry.getValue())){
                     String tName = wProps.getProperty(tkey + Const.PropDivider + "name");
                     String tCountry = wProps.getProperty(tkey + Const.PropDivider + "country");
                     String tLat = wProps.getProperty(tkey + Const.PropDivider + "latitude");
@@ -199,10 +154,13 @@ public class OWM {
     }
 
     private void removeWeatherLocation(String locationID){
-        Map locKeys = wProps.getPropertiesWithPrefix(weatherLocKey + locationID);
-        for (Object locKey : locKeys.keySet()){
-            String tKey = weatherLocKey + locationID + locKey;
-            wProps.remove(tKey);
+        //the view is live so removing while walking it is safe
+        String locIDKey = weatherLocKey + locationID;
+        for (String tKey : wProps.getPropertiesView(locIDKey).keySet()){
+            //skip other locations whose ID starts with this one
+            if (tKey.length() == locIDKey.length() || tKey.startsWith(Const.PropDivider, locIDKey.length())){
+                wProps.remove(tKey);
+            }
         }
         //save the default weather location in case it's changed
         if(api.hasLocations()){
@@ -214,9 +172,8 @@ public class OWM {
     }
 
     private void removeAllWeatherLocations(){
-        Map locKeys = wProps.getPropertiesWithPrefix(weatherLocKey);
-        for (Object locKey : locKeys.keySet()){
-            wProps.remove(locKey);
+        for (String tKey : wProps.getPropertiesView(weatherLocKey).keySet()){
+            wProps.remove(tKey);
         }
         wProps.put(weatherLocKey + "defaultLocationID", "");
         wProps.save();
@@ -351,10 +308,67 @@ public class OWM {
      *
      * @return true if the weather was updated
      */
-    public synchronized boolean Update() {
+    public boolean Update() {
         return Update(null);
     }
-    public synchronized boolean Update(String locationID) {
+    public boolean Update(String locationID) {
+        if (locationID!=null && !locationID.isEmpty()) {
+            //join an update already in flight rather than waiting behind it
+            return UpdateAsync(locationID).join();
+        }
+        if (!isUpdateDue(locationID)) {
+            return false;
+        }
+
+        if (api.update(locationID)) {
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Starts the weather update and returns right away. Readers keep getting the
+     * last good forecast while the update runs. If an update for a location is
+     * already running the returned future joins that update.
+     *
+     * @return future completed with true if the weather was updated
+     */
+    public Map<String, CompletableFuture<Boolean>> UpdateAsync() {
+        Map<String, CompletableFuture<Boolean>> futures = new LinkedHashMap<>();
+        if (api==null) {
+            return futures;
+        }
+        for (geoLocation loc : api.sortedList()) {
+            futures.put(loc.getID(), UpdateAsync(loc.getID()));
+        }
+        return futures;
+    }
+    public CompletableFuture<Boolean> UpdateAsync(String locationID) {
+        if (locationID==null || locationID.isEmpty()) {
+            return CompletableFuture.completedFuture(false);
+        }
+        if (!IsUpdating(locationID) && !isUpdateDue(locationID)) {
+            return CompletableFuture.completedFuture(false);
+        }
+        return api.updateAsync(locationID).thenApply(new Function<WeatherRefresher.Result, Boolean>() {
+            @Override
+            public Boolean apply(WeatherRefresher.Result result) {
+                return result.isUpdated();
+            }
+        });
+    }
+
+    /**
+     * Returns true if a location is currently being updated
+     */
+    public boolean IsUpdating(String locationID) {
+        if (api==null || locationID==null || locationID.isEmpty() || !api.hasLocation(locationID)) {
+            return false;
+        }
+        return WeatherRefresher.isRefreshing(api.get(locationID));
+    }
+
+    private boolean isUpdateDue(String locationID) {
         if (api==null) {
             Log.info("OWM","OWM: Update - Weather is not configured.  Update Ignored.");
             return false;
@@ -363,19 +377,19 @@ public class OWM {
         if (locationID==null || locationID.isEmpty()){ //null locationID means perform update on all locations if enough time has passed
             if (GetUpdateIntervalSecs()>0 && (System.currentTimeMillis() < (api.getLastChecked() +GetUpdateIntervalMS()) )) {
                 // no update
-                Log.info("OWM","OWM: Update - No Weather Update required, since ALL locations are within the " + GetUpdateIntervalSecs() + " seconds window");
+                if (Log.isDebugEnabled("OWM")) {
+                    Log.debug("OWM","OWM: Update - No Weather Update required, since ALL locations are within the " + GetUpdateIntervalSecs() + " seconds window");
+                }
                 return false;
             }
         }else if (GetUpdateIntervalSecs()>0 && (System.currentTimeMillis() < (api.getWeather(locationID).getLastChecked() +GetUpdateIntervalMS()) )) {
             // no update
-            Log.info("OWM","OWM: Update - No Weather Update required, since we are within the " + GetUpdateIntervalSecs() + " seconds window");
+            if (Log.isDebugEnabled("OWM")) {
+                Log.debug("OWM","OWM: Update - No Weather Update required, since we are within the " + GetUpdateIntervalSecs() + " seconds window");
+            }
             return false;
         }
-
-        if (api.update(locationID)) {
-            return true;
-        }
-        return false;
+        return true;
     }
 
     public int GetLocationCount(){
@@ -469,6 +483,8 @@ public class OWM {
             if (api.remove(locationID)){
                 //need to remove the location from properties and then save the properties file
                 removeWeatherLocation(locationID);
+                ForecastStore.remove(locationID);
+                WeatherMetrics.forgetLocation(locationID);
             }
         }
 
@@ -482,6 +498,9 @@ public class OWM {
     public void RemoveAllLocations()
     {
         removeAllWeatherLocations();
+        for (geoLocation loc : api.sortedList()) {
+            WeatherMetrics.forgetLocation(loc.getID());
+        }
         api.clear();
     }
 
@@ -513,6 +532,10 @@ public class OWM {
         if (oldUnits == null || !u.name().equalsIgnoreCase(oldUnits)) {
             //units has changed so the properties need saving
             saveWeatherLocation(GetLocation(locationID));
+            //and the weather in the old units is no longer any use
+            if (scheduler!=null){
+                scheduler.reschedule(api.getWeather(locationID));
+            }
         }
     }
 
@@ -697,7 +720,7 @@ public class OWM {
         if(locationID==null || locationID.isEmpty()){
             return false;
         }
-        return api.getWeather(locationID).hasError();
+        return api.getWeather(locationID).hasError() || ForecastFetcher.getBreaker().getStatusMessage()!=null;
     }
 
     /**
@@ -712,9 +735,24 @@ public class OWM {
         if(locationID==null || locationID.isEmpty()){
             return null;
         }
+        //a known provider outage explains any failure and tells the user it is not their settings
+        String outage = ForecastFetcher.getBreaker().getStatusMessage();
+        if (outage!=null){
+            return outage;
+        }
         return api.getWeather(locationID).getError();
     }
 
+    /**
+     * Returns the update pipeline metrics (fetch/parse/update timings, api calls, cache results and
+     * staleness per location) as plain text
+     *
+     * @return metrics text
+     */
+    public String GetMetrics() {
+        return WeatherMetrics.getInstance().dump();
+    }
+
     /**
 
      * Return the Windchill or Feels like temperature for the forecast period
@@ -762,7 +800,7 @@ public class OWM {
         if(locationID==null || locationID.isEmpty()){
             return 0;
         }
-        return api.getWeather(locationID).getForecasts().size();
+        return api.getWeather(locationID).getForecastDays();
     }
 
     /**
@@ -774,73 +812,28 @@ public class OWM {
         return GetForecastDay(period,api.getDefaultID());
     }
     public int GetForecastDay(IForecastPeriod period, String locationID) {
-        int periodIndex = GetForecastPeriods(locationID).indexOf(period);
-        if (periodIndex == -1) {
-            return 0;
-        }
-        if (HasTodaysHigh(locationID)) {
-            return periodIndex / 2;
-        } else {
-            return (periodIndex + 1) / 2;
-        }
+        return getView(locationID).getDayNumber(period);
     }
 
     public List<IForecastPeriod> GetForecastPeriods(int MaxPeriods) {
         return GetForecastPeriods(MaxPeriods,api.getDefaultID());
     }
     public List<IForecastPeriod> GetForecastPeriods(int MaxPeriods, String locationID) {
-        List<IForecastPeriod> tPeriods = new ArrayList<IForecastPeriod>();
-        int counter = 0;
-        for (IForecastPeriod fp : GetForecastPeriods()) {
-            counter++;
-            if (counter > MaxPeriods) {
-                break;
-            }
-            tPeriods.add(fp);
-        }
-        return tPeriods;
+        return getView(locationID).getPeriods(MaxPeriods);
     }
 
     public List<IForecastPeriod> GetForecastPeriods() {
         return GetForecastPeriods(api.getDefaultID());
     }
     public List<IForecastPeriod> GetForecastPeriods(String locationID) {
-        List<IForecastPeriod> tPeriods = new ArrayList<IForecastPeriod>();
-        if (GetForecasts(locationID) != null) {
-            for (ILongRangeForecast lr : GetForecasts(locationID)) {
-                IForecastPeriod p = lr.getForecastPeriodDay();
-
-                // TOOO: check if valid
-                if (p != null) {
-                    tPeriods.add(p);
-                }
-
-                p = lr.getForecastPeriodNight();
-
-                // TODO: check if valid
-                if (p != null) {
-                    tPeriods.add(p);
-                }
-            }
-        }
-        return tPeriods;
+        return getView(locationID).getPeriods();
     }
 
     public List<ILongRangeForecast> GetForecasts(int MaxDays) {
-        return GetForecasts(api.getDefaultID());
+        return GetForecasts(MaxDays, api.getDefaultID());
     }
     public List<ILongRangeForecast> GetForecasts(int MaxDays, String locationID) {
-        List<ILongRangeForecast> tDays = new ArrayList<ILongRangeForecast>();
-        int counter = 0;
-        for (ILongRangeForecast lrf : GetForecasts(locationID)) {
-            counter++;
-            if (counter > MaxDays) {
-                break;
-            }
-            tDays.add(lrf);
-        }
-
-        return tDays;
+        return getView(locationID).getDays(MaxDays);
     }
 
     public List<ILongRangeForecast> GetForecasts() {
@@ -853,6 +846,15 @@ public class OWM {
         return api.getWeather(locationID).getForecasts();
     }
 
+    //lists and flags worked out once per forecast update - empty until the location has weather
+    private ForecastView getView(String locationID) {
+        if(locationID==null || locationID.isEmpty()){
+            return ForecastView.EMPTY;
+        }
+        ForecastSnapshot snapshot = api.getWeather(locationID).getSnapshot();
+        return snapshot==null ? ForecastView.EMPTY : snapshot.getView();
+    }
+
     /**
      * Gets the LongRangForecast for a specific day
      *
@@ -865,13 +867,7 @@ public class OWM {
         if(locationID==null || locationID.isEmpty()){
             return null;
         }
-        if (api.getWeather(locationID).getForecasts() == null) {
-            return null;
-        }
-        if (api.getWeather(locationID).getForecasts().size() > day) {
-            return api.getWeather(locationID).getForecasts().get(day);
-        }
-        return null;
+        return getView(locationID).getDay(day);
     }
 
     /**
@@ -886,10 +882,7 @@ public class OWM {
         if(locationID==null || locationID.isEmpty()){
             return null;
         }
-        if (api.getWeather(locationID).getForecasts().size() > day) {
-            return api.getWeather(locationID).getForecasts().get(day).getForecastPeriodDay();
-        }
-        return null;
+        return getView(locationID).getDayPeriod(day);
     }
 
     /**
@@ -923,10 +916,7 @@ public class OWM {
         if(locationID==null || locationID.isEmpty()){
             return null;
         }
-        if (api.getWeather(locationID).getForecasts().size() > day) {
-            return api.getWeather(locationID).getForecasts().get(day).getForecastPeriodNight();
-        }
-        return null;
+        return getView(locationID).getNightPeriod(day);
     }
 
     /**
@@ -960,13 +950,7 @@ public class OWM {
         if(locationID==null || locationID.isEmpty()){
             return null;
         }
-        if (api.getWeather(locationID).getForecasts().size() > day) {
-            if (api.getWeather(locationID).getForecasts().get(day).getForecastPeriodDay() == null) {
-                return api.getWeather(locationID).getForecasts().get(day).getForecastPeriodNight();
-            }
-            return api.getWeather(locationID).getForecasts().get(day).getForecastPeriodDay();
-        }
-        return null;
+        return getView(locationID).getSinglePeriod(day);
     }
 
     /**
@@ -994,13 +978,7 @@ public class OWM {
         return GetForecastPeriod(period, api.getDefaultID());
     }
     public IForecastPeriod GetForecastPeriod(int period, String locationID) {
-        if (GetForecastPeriods(locationID) == null) {
-            return null;
-        }
-        if (GetForecastPeriods(locationID).size() > period) {
-            return GetForecastPeriods(locationID).get(period);
-        }
-        return null;
+        return getView(locationID).getPeriod(period);
     }
 
     public String GetFormattedTemp(Object temp) {
@@ -1080,8 +1058,7 @@ public class OWM {
     public String GetDay(Date date) {
         if (date == null)
             return "Unknown";
-        SimpleDateFormat df = new SimpleDateFormat("E");
-        return df.format(date);
+        return WeatherTime.getDayName(date);
     }
 
     /**
@@ -1228,16 +1205,7 @@ public class OWM {
         return HasTodaysHigh(api.getDefaultID());
     }
     public boolean HasTodaysHigh(String locationID) {
-        if (GetForecasts(locationID) == null) {
-            return false;
-        }
-        if (GetForecasts(locationID).get(0).getForecastPeriodDay() == null) {
-            return false;
-        }
-        if (GetForecasts(locationID).get(0).getForecastPeriodDay().getTemp() == IForecastPeriod.iInvalid) {
-            return false;
-        }
-        return true;
+        return getView(locationID).hasTodaysHigh();
     }
 
     /**
@@ -1307,24 +1275,14 @@ public class OWM {
     }
 
     private String getDayName(Date Day) {
-        Calendar thisDay = Calendar.getInstance();
-        thisDay.setTime(Day);
-        SimpleDateFormat dateFormat = new SimpleDateFormat("EEE");
-        return dateFormat.format(thisDay.getTime());
+        return WeatherTime.getDayName(Day);
     }
 
     private String getDayNameFull(Date Day) {
-        boolean isToday = false;
-        Calendar Today = Calendar.getInstance();
-        Today.setTime(Calendar.getInstance().getTime());
-        Calendar thisDay = Calendar.getInstance();
-        thisDay.setTime(Day);
-        SimpleDateFormat dateFormat = new SimpleDateFormat("EEEE");
-        if (Today.get(Calendar.ERA) == thisDay.get(Calendar.ERA) && Today.get(Calendar.YEAR) == thisDay.get(Calendar.YEAR)
-                && Today.get(Calendar.DAY_OF_YEAR) == thisDay.get(Calendar.DAY_OF_YEAR)) {
+        if (WeatherTime.isToday(Day)) {
             return "Today";
         } else {
-            return dateFormat.format(thisDay.getTime());
+            return WeatherTime.getDayNameFull(Day);
         }
     }
 
@@ -1468,8 +1426,9 @@ public class OWM {
      * @return weather code condition
      */
     public String GetCodeText(int code) {
-        if (codeMap.containsKey(code)) {
-            return codeMap.get(code);
+        String text = ConditionCodes.getText(code);
+        if (text != null) {
+            return text;
         } else {
             return "Unknown";
         }
@@ -1484,8 +1443,9 @@ public class OWM {
         if (forecastperiod == null) {
             return "Unknown";
         }
-        if (codeMap.containsKey(forecastperiod.getCode())) {
-            return codeMap.get(forecastperiod.getCode());
+        String text = ConditionCodes.getText(forecastperiod.getCode());
+        if (text != null) {
+            return text;
         } else {
             return "Unknown (" + forecastperiod.getCode() + ")";
         }
@@ -1498,11 +1458,7 @@ public class OWM {
      * @return weather code for day
      */
     public int GetCodeForceDay(int code) {
-        if (dayCodeMap.containsKey(code)) {
-            return dayCodeMap.get(code);
-        } else {
-            return code;
-        }
+        return ConditionCodes.forceDay(code);
     }
 
     /**
@@ -1512,11 +1468,7 @@ public class OWM {
      * @return weather code for night
      */
     public int GetCodeForceNight(int code) {
-        if (nightCodeMap.containsKey(code)) {
-            return nightCodeMap.get(code);
-        } else {
-            return code;
-        }
+        return ConditionCodes.forceNight(code);
     }
 
     /**
@@ -1598,10 +1550,7 @@ public class OWM {
     }
 
     public int GetUpdateIntervalSecs() {
-        //TODO: get this interval from the properties
-        int def = 60*30; // 30 minutes
-        //return NumberUtils.toInt(Configuration.GetServerProperty(API_CHECK_PROP, String.valueOf(def)),def);
-        return def;
+        return utils.getCheckInterval();
     }
 
     public int GetUpdateIntervalMS() {
@@ -2053,14 +2002,16 @@ public class OWM {
                 }
 
                 //determine which image file to return
+                BackgroundIndex index = BackgroundIndex.getInstance();
+                List<String> backgrounds = index.getFiles(code);
                 int BGIndex = GetBackgroundIndex(code);
-                if (GetBackgroundsList(code).size()>BGIndex){
-                    return GetBackgroundsPath(code) + GetBackgroundsList(code).get(BGIndex);
+                if (backgrounds.size()>BGIndex){
+                    return index.getPath(code) + backgrounds.get(BGIndex);
                 }else{
-                    if (GetBackgroundsList(code).size()>0){
+                    if (backgrounds.size()>0){
                         //adjust the index back to 0
                         SetBackgroundIndex(code, 0);
-                        return GetBackgroundsPath(code) + GetBackgroundsList(code).get(0);
+                        return index.getPath(code) + backgrounds.get(0);
                     }
                     return "";
                 }
@@ -2073,30 +2024,12 @@ public class OWM {
     }
 
     public ArrayList<String> GetBackgroundsList(int code){
-        SortedSet<String> tList = new TreeSet<String>();
-        File BGLoc = new File(GetBackgroundsPath(code));
-        if (BGLoc!=null){
-            File[] files = BGLoc.listFiles();
-            if (files==null){
-                Log.info("OWM","GetBackgroundsList: for code '" + code + "' invalid backgrounds location '" + GetBackgroundsPath(code) + "'");
-                return new ArrayList<String>();
-            }else{
-                for (File file : files){
-                    if (!file.isDirectory()){
-                        tList.add(file.getName());
-                    }
-                }
-                //LOG.debug("GetBackgroundsList: for code '" + code + "' found '" + tList + "'");
-                return new ArrayList<String>(tList);
-            }
-        }else{
-            Log.info("OWM","GetBackgroundsList: for code '" + code + "' invalid backgrounds location '" + GetBackgroundsPath(code) + "'");
-            return new ArrayList<String>();
-        }
+        //copy as callers expect their own list
+        return new ArrayList<String>(BackgroundIndex.getInstance().getFiles(code));
     }
 
     public String GetBackgroundsPath(int code){
-        return utils.WeatherLocationBackgrounds() + File.separator + "Backgrounds" + File.separator + code + File.separator;
+        return BackgroundIndex.getInstance().getPath(code);
     }
 
     private String getBGPropLocation(int code){
@@ -2159,21 +2092,10 @@ public class OWM {
         return HasDescription(api.getDefaultID());
     }
     public boolean HasDescription(String locationID){
-        if(locationID==null || locationID.isEmpty()){
-            return false;
-        }
-        if (GetForecastPeriods(locationID)==null){
-            return false;
-        }
-        if (IsSupported(GetDescription(GetForecastPeriod(0,locationID)))){
-            return true;
-        }else{
-            return false;
-        }
-
+        return getView(locationID).hasDescription();
     }
     public int GetForecastColumns(boolean ForecastExpandFocused){
-        return GetForecastColumns(ForecastExpandFocused);
+        return GetForecastColumns(ForecastExpandFocused,api.getDefaultID());
     }
     public int GetForecastColumns(boolean ForecastExpandFocused,String locationID){
         if(locationID==null || locationID.isEmpty()){
@@ -2183,21 +2105,7 @@ public class OWM {
                 return 5;
             }
         }
-        if (HasDescription()){
-            if (ForecastExpandFocused){
-                return 3;
-            }else{
-                return 5;
-            }
-        }else if(GetForecastDays(locationID)<3){
-            return 2;
-        }else{
-            if (ForecastExpandFocused){
-                return 4;
-            }else{
-                return 5;
-            }
-        }
+        return getView(locationID).getForecastColumns(ForecastExpandFocused);
     }
 
     public double GetForecastWidth(boolean Focused, boolean ForecastExpandFocused, IForecastPeriod NightPeriod){
@@ -2207,7 +2115,8 @@ public class OWM {
         if(locationID==null || locationID.isEmpty()){
             return 0;
         }
-        if (HasDescription(locationID)){
+        ForecastView view = getView(locationID);
+        if (view.hasDescription()){
             if (Focused){
                 if (ForecastExpandFocused){
                     if (NightPeriod==null){
@@ -2221,7 +2130,7 @@ public class OWM {
             }else{
                 return (1.0/5);
             }
-        }else if(GetForecastDays(locationID)<3){
+        }else if(view.hasFewDays()){
             return (1.0/2);
         }else{
             if (Focused){
@@ -2247,7 +2156,8 @@ public class OWM {
         if(locationID==null || locationID.isEmpty()){
             return false;
         }
-        if (HasDescription(locationID)){
+        ForecastView view = getView(locationID);
+        if (view.hasDescription()){
             if (Focused){
                 if (ForecastExpandFocused){
                     return true;
@@ -2257,7 +2167,7 @@ public class OWM {
             }else{
                 return false;
             }
-        }else if(GetForecastDays(locationID)<3){
+        }else if(view.hasFewDays()){
             return true;
         }else{
             if (Focused){
@@ -1,21 +1,20 @@
 package sageweather;
 
 import com.google.gson.*;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import org.apache.commons.lang.math.NumberUtils;
 import sageweather.IForecastPeriod.Type;
 
-import java.io.IOException;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.io.*;
 import java.util.*;
 
 /**
  * Parses Weather Json for OpenWeatherMap
+ *  - responses are parsed as they stream in with a JsonReader, filling the forecast periods directly
+ *    and skipping any blocks (hourly, minutely, alerts) that are not used
  */
 public class OWMWeatherJsonHandler {
-    private HashMap<String, String> CodesForDaytime = new HashMap<String, String>();
-    private HashMap<String, String> CodesForNighttime = new HashMap<String, String>();
-
     private String sunrise, sunset;
     private Date recordedDate;
     private long dayStart, dayEnd;
@@ -25,123 +24,10 @@ public class OWMWeatherJsonHandler {
     private List<ILongRangeForecast> days = new ArrayList<ILongRangeForecast>();
 
     public OWMWeatherJsonHandler() {
-        BuildWeatherIconLists();
-    }
-
-    private void BuildWeatherIconLists() {
-        AddIcon("Thunderstorm", "37", "47");
-        AddIcon("200", "37", "47");
-        AddIcon("201", "37", "47");
-        AddIcon("202", "37", "47");
-        AddIcon("210", "37", "47");
-        AddIcon("211", "37", "47");
-        AddIcon("212", "37", "47");
-        AddIcon("221", "37", "47");
-        AddIcon("230", "37", "47");
-        AddIcon("231", "37", "47");
-        AddIcon("232", "37", "47");
-
-        AddIcon("Drizzle", "9", "45");
-        AddIcon("300", "9", "45");
-        AddIcon("301", "9", "45");
-        AddIcon("302", "9", "45");
-        AddIcon("310", "9", "45");
-        AddIcon("311", "9", "45");
-        AddIcon("312", "9", "45");
-        AddIcon("313", "9", "45");
-        AddIcon("314", "9", "45");
-        AddIcon("321", "9", "45");
-
-        AddIcon("Rain", "40", "45");
-        AddIcon("500", "11", "45");
-        AddIcon("501", "12", "45");
-        AddIcon("502", "40", "45");
-        AddIcon("503", "40", "45");
-        AddIcon("504", "40", "45");
-        AddIcon("511", "7", "7");
-        AddIcon("520", "11", "45");
-        AddIcon("521", "12", "45");
-        AddIcon("522", "40", "45");
-        AddIcon("531", "40", "45");
-
-        AddIcon("Snow", "41", "46");
-        AddIcon("600", "13", "46");
-        AddIcon("601", "14", "46");
-        AddIcon("602", "16", "46");
-        AddIcon("611", "7", "46");
-        AddIcon("612", "6", "46");
-        AddIcon("613", "5", "46");
-        AddIcon("615", "5", "46");
-        AddIcon("616", "7", "46");
-        AddIcon("620", "13", "46");
-        AddIcon("621", "14", "46");
-        AddIcon("622", "16", "46");
-
-        AddIcon("Mist", "11", "11");
-        AddIcon("701", "11", "11");
-
-        AddIcon("Smoke", "22", "22");
-        AddIcon("711", "22", "22");
-
-        AddIcon("Haze", "21", "21");
-        AddIcon("721", "21", "21");
-
-        AddIcon("Dust", "19", "19");
-        AddIcon("731", "19", "19");
-        AddIcon("761", "19", "19");
-
-        AddIcon("Fog", "20", "20");
-        AddIcon("741", "20", "20");
-
-        AddIcon("Sand", "19", "19");
-        AddIcon("751", "19", "19");
-
-        AddIcon("Ash", "22", "22");
-        AddIcon("762", "22", "22");
-
-        AddIcon("Squall", "35", "35");
-        AddIcon("771", "35", "35");
-
-        AddIcon("Tornado", "23", "24");
-        AddIcon("781", "23", "24");
-
-        AddIcon("Clear", "32", "31");
-        AddIcon("800", "32", "31");
-
-        AddIcon("Clouds", "26", "26");
-        AddIcon("801", "34", "33");
-        AddIcon("802", "34", "33");
-        AddIcon("803", "30", "29");
-        AddIcon("804", "28", "27");
-
-        AddIcon("unknown", "-1", "-1");
-        AddIcon(IForecastPeriod.sInvalid, "-1", "-1");
     }
 
-    private void AddIcon(String CodeSource, String CodeForDay, String CodeForNight) {
-        CodesForDaytime.put(CodeSource, CodeForDay);
-        CodesForNighttime.put(CodeSource, CodeForNight);
-    }
-
-    private Integer GetCodeFromName(String IconName, IForecastPeriod.Type DayType) {
-        Integer tIcon = -1;
-        if (IconName == null) {
-            return -1;
-        } else {
-            if (DayType.equals(IForecastPeriod.Type.Current) || DayType.equals(IForecastPeriod.Type.Day)) {
-                if (CodesForDaytime.containsKey(IconName)) {
-                    return NumberUtils.toInt(CodesForDaytime.get(IconName), tIcon);
-                } else {
-                    return -1;
-                }
-            } else {
-                if (CodesForNighttime.containsKey(IconName)) {
-                    return NumberUtils.toInt(CodesForNighttime.get(IconName), tIcon);
-                } else {
-                    return -1;
-                }
-            }
-        }
+    private int GetCodeFromName(String IconName, IForecastPeriod.Type DayType) {
+        return ConditionCodes.fromOwmName(IconName, DayType.equals(IForecastPeriod.Type.Night));
     }
 
     public void parse(String urlString) throws IOException, JsonIOException {
@@ -149,138 +35,78 @@ public class OWMWeatherJsonHandler {
     }
 
     public void parse(String urlString, IWeatherLocation.Units inUnits) throws IOException, JsonIOException {
-        units = inUnits;
-        final String requestTZ;
-
-        //read the url and get the JSON results as a string
-        String data = utils.getContentAsString(urlString);
-
-        // Convert to a JSON object to get the elements
-        JsonParser jp = new JsonParser(); //from gson
-        JsonElement rootElement = jp.parse(data); //Convert the input stream to a json element
-        JsonObject root = rootElement.getAsJsonObject(); //May be an array, may be an object.
-
-        JsonObject currently = root.getAsJsonObject("current");
-        if (currently == null) throw new IOException("JSON Response for 'currently' Weather did not contain a valid response");
-        requestTZ = root.get("timezone").getAsString();
-
-        current = new ForecastPeriod();
-
-        recordedDate = utils.GetJSONAsDate("dt", currently);
-        current.setDate(recordedDate);
-        current.setType(Type.Current);
-        current.setTemp(utils.GetJSONAsInteger("temp", currently));
-
-        //get weather elements from currently
-        JsonArray weatherDetailsArray = currently.getAsJsonArray("weather");
-        JsonElement weatherDetailsItem = weatherDetailsArray.get(0);
-        JsonObject weatherDetails = weatherDetailsItem.getAsJsonObject();
-        current.setCode(GetCodeFromName(utils.GetJSONAsString("id", weatherDetails),Type.Current));
-        current.setCondition(utils.GetJSONAsString("main", weatherDetails));
-        current.setDescription(utils.GetJSONAsString("description", weatherDetails));
-
-        current.setHumid(FormatIntegerasPercent("humidity", currently));
-
-        //get rain details if available from current then get the 1h accumulation
-        if (currently.has("rain")) {
-            JsonObject rainDetails = currently.getAsJsonObject("rain");
-            current.setPrecipAccumulation(FormatPrecipAccumulation("1h", rainDetails));
-            current.setPrecipType(IForecastPeriod.PrecipType.Rain);
-        }else if (currently.has("snow")){
-            JsonObject snowDetails = currently.getAsJsonObject("snow");
-            current.setPrecipAccumulation(FormatPrecipAccumulation("1h", snowDetails));
-            current.setPrecipType(IForecastPeriod.PrecipType.Snow);
-        }else{
-            current.setPrecipAccumulation(IForecastPeriod.PercentNone);
-            current.setPrecipType(IForecastPeriod.PrecipType.None);
-        }
-
-        current.setCloudCover(FormatIntegerasPercent("clouds",currently));
+        this.parse(urlString, inUnits, ApiQuota.Priority.Location);
+    }
 
-        current.setWindSpeed(utils.GetJSONAsInteger("wind_speed",currently));
-        if (current.getWindSpeed() == 0) {
-            current.setWindDir(IForecastPeriod.iInvalid);
-            current.setWindDirText(IForecastPeriod.WindCalm);
-        } else {
-            current.setWindDir(utils.GetJSONAsInteger("wind_deg", currently));
-            current.setWindDirText(formatCompassDirection(current.getWindDir()));
+    public void parse(String urlString, IWeatherLocation.Units inUnits, ApiQuota.Priority priority) throws IOException, JsonIOException {
+        //stream the response (or the cached copy of it) straight into the parser
+        InputStream in = WeatherResponseCache.open(urlString, priority);
+        //time spent waiting on the body is kept apart from the parse itself
+        WeatherMetrics.TimedInputStream timed = new WeatherMetrics.TimedInputStream(in);
+        long start = System.nanoTime();
+        try {
+            parse(new BufferedReader(new InputStreamReader(timed, "UTF-8")), inUnits);
+        } finally {
+            in.close();
+            long readNanos = timed.getReadNanos();
+            WeatherMetrics.recordRead(readNanos / 1000000);
+            WeatherMetrics.recordParse((System.nanoTime() - start - readNanos) / 1000000);
         }
+    }
 
-        current.setDewPoint(String.valueOf(utils.GetJSONAsInteger("dew_point", currently)));
-        current.setFeelsLike(utils.GetJSONAsInteger("feels_like", currently));
-        current.setPressure(utils.GetJSONAsString("pressure", currently));
-        current.setPressureDir(IForecastPeriod.iNotSupported);
-        current.setUVIndex(utils.GetJSONAsString("uvi", currently));
-        current.setVisibility(utils.GetJSONAsInteger("visibility", currently));
-
-        JsonArray daily = root.getAsJsonArray("daily");
-        int i=0;
-        for (JsonElement itemElement: daily) {
-            JsonObject item = itemElement.getAsJsonObject();
-            LongRangForecast r = new LongRangForecast();
-            ForecastPeriod day = new ForecastPeriod();
-            r.setForecastPeriodDay(day);
-
-            days.add(r);
-
-            //Day related items
-            day.setDate(utils.GetJSONAsDate("dt", item));
-            day.setType(Type.Day);
-
-            //get temp element from daily - use for day and night temp (below)
-            JsonObject tempDetails = item.getAsJsonObject("temp");
-            day.setTemp(utils.GetJSONAsInteger("day", tempDetails));
-
-            //get weather elements from daily
-            JsonArray dailyweatherDetailsArray = item.getAsJsonArray("weather");
-            JsonElement dailyweatherDetailsItem = dailyweatherDetailsArray.get(0);
-            JsonObject dailyweatherDetails = dailyweatherDetailsItem.getAsJsonObject();
-            day.setCode(GetCodeFromName(utils.GetJSONAsString("id", dailyweatherDetails),Type.Day));
-            day.setCondition(utils.GetJSONAsString("main", dailyweatherDetails));
-            day.setDescription(utils.GetJSONAsString("description", dailyweatherDetails));
-
-            day.setHumid(FormatIntegerasPercent("humidity", item));
-            day.setPrecip(FormatDoubleasPercent("pop",item));
-
-            //get rain details if available from current then get the 1h accumulation
-            if (item.has("rain")) {
-                day.setPrecipAccumulation(FormatPrecipAccumulation("rain", item));
-                day.setPrecipType(IForecastPeriod.PrecipType.Rain);
-            }else if (item.has("snow")){
-                day.setPrecipAccumulation(FormatPrecipAccumulation("snow", item));
-                day.setPrecipType(IForecastPeriod.PrecipType.Snow);
-            }else{
-                day.setPrecipAccumulation(IForecastPeriod.PercentNone);
-                day.setPrecipType(IForecastPeriod.PrecipType.None);
-            }
-
-            day.setCloudCover(FormatIntegerasPercent("clouds",item));
+    /**
+     * Streaming parse of a onecall response
+     */
+    public void parse(Reader reader, IWeatherLocation.Units inUnits) throws IOException {
+        units = inUnits;
+        String requestTZ = null;
+        boolean hasCurrent = false;
+        //sunrise/sunset are formatted once the timezone is known as it may come after the daily block
+        List<long[]> sunTimes = new ArrayList<long[]>();
 
-            day.setWindSpeed(utils.GetJSONAsInteger("wind_speed",item));
-            if (day.getWindSpeed() == 0) {
-                day.setWindDir(IForecastPeriod.iInvalid);
-                day.setWindDirText(IForecastPeriod.WindCalm);
-            } else {
-                day.setWindDir(utils.GetJSONAsInteger("wind_deg", item));
-                day.setWindDirText(formatCompassDirection(day.getWindDir()));
+        JsonReader in = new JsonReader(reader);
+        try {
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (name.equals("timezone")) {
+                    requestTZ = readString(in);
+                } else if (name.equals("current") && in.peek() == JsonToken.BEGIN_OBJECT) {
+                    readCurrent(in);
+                    hasCurrent = true;
+                } else if (name.equals("daily") && in.peek() == JsonToken.BEGIN_ARRAY) {
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        sunTimes.add(readDay(in));
+                    }
+                    in.endArray();
+                } else {
+                    in.skipValue();
+                }
             }
-
-            day.setDewPoint(String.valueOf(utils.GetJSONAsInteger("dew_point", item)));
-
-            //get feels_like element from daily - use for day and night feelslike (below)
-            JsonObject feelsDetails = item.getAsJsonObject("feels_like");
-            day.setFeelsLike(utils.GetJSONAsInteger("day", feelsDetails));
-
-            day.setPressure(utils.GetJSONAsString("pressure", item));
-            day.setPressureDir(IForecastPeriod.iNotSupported);
-            day.setMoonPhase(GetMoonPhase(utils.GetJSONAsDouble("moon_phase",item)));
-
-            dayStart = formatStartEnd(utils.GetJSONAsString("sunrise", item),requestTZ);
-            dayEnd = formatStartEnd(utils.GetJSONAsString("sunset", item),requestTZ);
-            sunrise = formatSunriseSunset(utils.GetJSONAsString("sunrise", item),requestTZ);
-            sunset = formatSunriseSunset(utils.GetJSONAsString("sunset", item),requestTZ);
+            in.endObject();
+        } catch (IllegalStateException e) {
+            //thrown by JsonReader when the document is not shaped as expected
+            throw new IOException("JSON Response for Weather could not be parsed: " + e.getMessage());
+        } catch (NumberFormatException e) {
+            throw new IOException("JSON Response for Weather could not be parsed: " + e.getMessage());
+        }
+        if (!hasCurrent) throw new IOException("JSON Response for 'currently' Weather did not contain a valid response");
+        if (requestTZ == null) throw new IOException("JSON Response for Weather did not contain a timezone");
+
+        for (int i = 0; i < days.size(); i++) {
+            long[] sun = sunTimes.get(i);
+            dayStart = formatStartEnd(sun[0], requestTZ);
+            dayEnd = formatStartEnd(sun[1], requestTZ);
+            sunrise = formatSunriseSunset(sun[0], requestTZ);
+            sunset = formatSunriseSunset(sun[1], requestTZ);
+            ILongRangeForecast r = days.get(i);
+            ForecastPeriod day = (ForecastPeriod) r.getForecastPeriodDay();
+            ForecastPeriod night = (ForecastPeriod) r.getForecastPeriodNight();
             day.setSunrise(sunrise);
             day.setSunset(sunset);
+            night.setSunrise(sunrise);
+            night.setSunset(sunset);
             //set the sunrise and sunset and moonPhase from the first day to the current forecast
             if (i==0){
                 current.setDayStart(dayStart);
@@ -290,37 +116,277 @@ public class OWMWeatherJsonHandler {
                 current.setMoonPhase(day.getMoonPhase());
                 current.setPrecip(day.getPrecip());
             }
+        }
+    }
+
+    private void readCurrent(JsonReader in) throws IOException {
+        current = new ForecastPeriod();
+        current.setType(Type.Current);
+        current.setPrecipAccumulation(IForecastPeriod.PercentNone);
+        current.setPrecipType(IForecastPeriod.PrecipType.None);
+        current.setPressureDir(IForecastPeriod.iNotSupported);
+        int windDeg = IForecastPeriod.iInvalid;
+
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (name.equals("dt")) {
+                recordedDate = readDate(in);
+                current.setDate(recordedDate);
+            } else if (name.equals("temp")) {
+                current.setTemp(readInt(in));
+            } else if (name.equals("weather")) {
+                readWeather(in, current, null);
+            } else if (name.equals("humidity")) {
+                current.setHumid(FormatIntegerasPercent(readInt(in)));
+            } else if (name.equals("rain") || name.equals("snow")) {
+                //when both are reported rain is shown whichever comes first - snow only replaces no precipitation
+                String accumulation = IForecastPeriod.sInvalid;
+                if (in.peek() == JsonToken.BEGIN_OBJECT) {
+                    in.beginObject();
+                    while (in.hasNext()) {
+                        if (in.nextName().equals("1h")) {
+                            accumulation = readString(in);
+                        } else {
+                            in.skipValue();
+                        }
+                    }
+                    in.endObject();
+                } else {
+                    in.skipValue();
+                }
+                if (name.equals("rain") || current.getPrecipType() != IForecastPeriod.PrecipType.Rain) {
+                    current.setPrecipAccumulation(FormatPrecipAccumulation(accumulation));
+                    current.setPrecipType(name.equals("rain") ? IForecastPeriod.PrecipType.Rain : IForecastPeriod.PrecipType.Snow);
+                }
+            } else if (name.equals("clouds")) {
+                current.setCloudCover(FormatIntegerasPercent(readInt(in)));
+            } else if (name.equals("wind_speed")) {
+                current.setWindSpeed(readInt(in));
+            } else if (name.equals("wind_deg")) {
+                windDeg = readInt(in);
+            } else if (name.equals("dew_point")) {
+                current.setDewPoint(String.valueOf(readInt(in)));
+            } else if (name.equals("feels_like")) {
+                current.setFeelsLike(readInt(in));
+            } else if (name.equals("pressure")) {
+                current.setPressure(readString(in));
+            } else if (name.equals("uvi")) {
+                current.setUVIndex(readString(in));
+            } else if (name.equals("visibility")) {
+                current.setVisibility(readInt(in));
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        setWind(current, windDeg);
+    }
+
+    /**
+     * Reads one daily entry into a new LongRangForecast
+     *
+     * @return the sunrise and sunset in unix seconds for formatting once the timezone is known
+     */
+    private long[] readDay(JsonReader in) throws IOException {
+        LongRangForecast r = new LongRangForecast();
+        ForecastPeriod day = new ForecastPeriod();
+        r.setForecastPeriodDay(day);
+        days.add(r);
+
+        day.setType(Type.Day);
+        day.setPrecipAccumulation(IForecastPeriod.PercentNone);
+        day.setPrecipType(IForecastPeriod.PrecipType.None);
+        day.setPressureDir(IForecastPeriod.iNotSupported);
+        day.setVisibility(IForecastPeriod.iNotSupported);
+        int windDeg = IForecastPeriod.iInvalid;
+        int nightTemp = IForecastPeriod.iInvalid;
+        int nightFeelsLike = IForecastPeriod.iInvalid;
+        int[] nightCode = new int[]{-1};
+        long[] sun = new long[]{IForecastPeriod.iInvalid, IForecastPeriod.iInvalid};
+
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (name.equals("dt")) {
+                day.setDate(readDate(in));
+            } else if (name.equals("temp") || name.equals("feels_like")) {
+                int dayValue = IForecastPeriod.iInvalid;
+                int nightValue = IForecastPeriod.iInvalid;
+                in.beginObject();
+                while (in.hasNext()) {
+                    String part = in.nextName();
+                    if (part.equals("day")) {
+                        dayValue = readInt(in);
+                    } else if (part.equals("night")) {
+                        nightValue = readInt(in);
+                    } else {
+                        in.skipValue();
+                    }
+                }
+                in.endObject();
+                if (name.equals("temp")) {
+                    day.setTemp(dayValue);
+                    nightTemp = nightValue;
+                } else {
+                    day.setFeelsLike(dayValue);
+                    nightFeelsLike = nightValue;
+                }
+            } else if (name.equals("weather")) {
+                readWeather(in, day, nightCode);
+            } else if (name.equals("humidity")) {
+                day.setHumid(FormatIntegerasPercent(readInt(in)));
+            } else if (name.equals("pop")) {
+                double pop = readDouble(in);
+                day.setPrecip(FormatDoubleasPercent(pop == IForecastPeriod.dInvalid ? pop : pop * 100));
+            } else if (name.equals("rain") || name.equals("snow")) {
+                String accumulation = readString(in);
+                if (name.equals("rain") || day.getPrecipType() != IForecastPeriod.PrecipType.Rain) {
+                    day.setPrecipAccumulation(FormatPrecipAccumulation(accumulation));
+                    day.setPrecipType(name.equals("rain") ? IForecastPeriod.PrecipType.Rain : IForecastPeriod.PrecipType.Snow);
+                }
+            } else if (name.equals("clouds")) {
+                day.setCloudCover(FormatIntegerasPercent(readInt(in)));
+            } else if (name.equals("wind_speed")) {
+                day.setWindSpeed(readInt(in));
+            } else if (name.equals("wind_deg")) {
+                windDeg = readInt(in);
+            } else if (name.equals("dew_point")) {
+                day.setDewPoint(String.valueOf(readInt(in)));
+            } else if (name.equals("pressure")) {
+                day.setPressure(readString(in));
+            } else if (name.equals("moon_phase")) {
+                day.setMoonPhase(GetMoonPhase(readDouble(in)));
+            } else if (name.equals("sunrise")) {
+                sun[0] = readLong(in);
+            } else if (name.equals("sunset")) {
+                sun[1] = readLong(in);
+            } else if (name.equals("uvi")) {
+                day.setUVIndex(readString(in));
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        setWind(day, windDeg);
+
+        //Copy the day forecast to the night as most fields are the same
+        ForecastPeriod night = new ForecastPeriod(day);
+        r.setForecastPeriodNight(night);
+        night.setType(Type.Night);
+        night.setTemp(nightTemp);
+        night.setFeelsLike(nightFeelsLike);
+        night.setCode(nightCode[0]);
+        return sun;
+    }
+
+    /**
+     * Reads the first entry of a weather array - the night code is returned through nightCode when passed
+     */
+    private void readWeather(JsonReader in, ForecastPeriod period, int[] nightCode) throws IOException {
+        in.beginArray();
+        boolean first = true;
+        while (in.hasNext()) {
+            if (!first) {
+                in.skipValue();
+                continue;
+            }
+            first = false;
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (name.equals("id")) {
+                    String id = readString(in);
+                    period.setCode(GetCodeFromName(id, period.getType()));
+                    if (nightCode != null) {
+                        nightCode[0] = GetCodeFromName(id, Type.Night);
+                    }
+                } else if (name.equals("main")) {
+                    period.setCondition(readString(in));
+                } else if (name.equals("description")) {
+                    period.setDescription(readString(in));
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+        }
+        in.endArray();
+    }
 
-            day.setUVIndex(utils.GetJSONAsString("uvi", item));
-            day.setVisibility(IForecastPeriod.iNotSupported);
+    private void setWind(ForecastPeriod period, int windDeg) {
+        if (period.getWindSpeed() == 0) {
+            period.setWindDir(IForecastPeriod.iInvalid);
+            period.setWindDirText(IForecastPeriod.WindCalm);
+        } else {
+            period.setWindDir(windDeg);
+            period.setWindDirText(formatCompassDirection(windDeg));
+        }
+    }
 
-            //Copy the day forecast to the night as most fields are the same
-            ForecastPeriod night = new ForecastPeriod(day);
-            r.setForecastPeriodNight(night);
+    //typed reads - numbers are read as numbers, nulls become the invalid markers
+    private static String readString(JsonReader in) throws IOException {
+        JsonToken token = in.peek();
+        if (token == JsonToken.NULL) {
+            in.nextNull();
+            return IForecastPeriod.sInvalid;
+        }
+        if (token == JsonToken.BOOLEAN) {
+            return String.valueOf(in.nextBoolean());
+        }
+        if (token != JsonToken.STRING && token != JsonToken.NUMBER) {
+            in.skipValue();
+            return IForecastPeriod.sInvalid;
+        }
+        return in.nextString();
+    }
 
-            //Night related items that are different from the day items
-            night.setType(Type.Night);
+    private static double readDouble(JsonReader in) throws IOException {
+        JsonToken token = in.peek();
+        if (token == JsonToken.NUMBER) {
+            return in.nextDouble();
+        }
+        if (token == JsonToken.NULL) {
+            in.nextNull();
+        } else {
+            in.skipValue();
+        }
+        return IForecastPeriod.dInvalid;
+    }
 
-            night.setTemp(utils.GetJSONAsInteger("night", tempDetails)); //tempDetail created above when getting day temp
-            night.setFeelsLike(utils.GetJSONAsInteger("night", feelsDetails));
-            night.setCode(GetCodeFromName(utils.GetJSONAsString("id", dailyweatherDetails),Type.Night));
+    private static int readInt(JsonReader in) throws IOException {
+        double value = readDouble(in);
+        if (value == IForecastPeriod.dInvalid) {
+            return IForecastPeriod.iInvalid;
+        }
+        return (int) Math.round(value);
+    }
 
-            i++;
+    private static long readLong(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NUMBER) {
+            return in.nextLong();
         }
+        in.skipValue();
+        return IForecastPeriod.iInvalid;
+    }
 
+    private static Date readDate(JsonReader in) throws IOException {
+        long secs = readLong(in);
+        if (secs == IForecastPeriod.iInvalid) {
+            return null;
+        }
+        return new Date(secs * 1000);
     }
 
-    private String FormatIntegerasPercent(String key, JsonObject item){
-        Integer value = utils.GetJSONAsInteger(key,item);
-        if (value.equals(IForecastPeriod.iInvalid)){
+    private String FormatIntegerasPercent(int value){
+        if (value==IForecastPeriod.iInvalid){
             return IForecastPeriod.sInvalid;
         }
         if (value==0)return IForecastPeriod.PercentNone;
-        return String.valueOf(value.intValue()) + "%";
+        return String.valueOf(value) + "%";
     }
 
-    private String FormatDoubleasPercent(String key, JsonObject item){
-        Double value = utils.GetJSONAsDouble(key,item,100);
+    private String FormatDoubleasPercent(Double value){
         if (value.equals(IForecastPeriod.dInvalid)){
             return IForecastPeriod.sInvalid;
         }
@@ -333,9 +399,8 @@ public class OWMWeatherJsonHandler {
         return (int) Math.floor(moonPhasePercent*30);
     }
 
-    private String FormatPrecipAccumulation(String key, JsonObject item){
-        String tPA = item.get(key).getAsString();
-        if (tPA==null){
+    private String FormatPrecipAccumulation(String tPA){
+        if (tPA==null || tPA.equals(IForecastPeriod.sInvalid)){
             return IForecastPeriod.PercentNone;
         }else{
             Double dPA = NumberUtils.toDouble(tPA);
@@ -384,31 +449,18 @@ public class OWMWeatherJsonHandler {
         return directions[index % 16];
     }
 
-    private String formatSunriseSunset(String sDate, String TZ) {
-        if (sDate.equals(IForecastPeriod.sInvalid)){
+    private String formatSunriseSunset(long secs, String TZ) {
+        if (secs == IForecastPeriod.iInvalid){
             return IForecastPeriod.sInvalid;
         }
-        Date dDate = utils.convertUNIXDate(sDate);
-        SimpleDateFormat sdfRequestTZ = new SimpleDateFormat("h:mm");
-        TimeZone tzRequestTZ = TimeZone.getTimeZone(TZ);
-        sdfRequestTZ.setTimeZone(tzRequestTZ);
-        return sdfRequestTZ.format(dDate);
+        return WeatherTime.formatSunTime(secs, TZ);
     }
 
-    private long formatStartEnd(String sDate, String TZ) {
-        if (sDate.equals(IForecastPeriod.sInvalid)){
+    private long formatStartEnd(long secs, String TZ) {
+        if (secs == IForecastPeriod.iInvalid){
             return IForecastPeriod.iInvalid;
         }
-        Date dDate = utils.convertUNIXDate(sDate);
-        SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyy-MMM-dd HH:mm:ss");
-        simpleDateFormat.setTimeZone(TimeZone.getTimeZone(TZ));
-        SimpleDateFormat thisDateFormat = new SimpleDateFormat("yyyy-MMM-dd HH:mm:ss");
-        try {
-            return thisDateFormat.parse( simpleDateFormat.format(dDate) ).getTime();
-        } catch (ParseException e) {
-            e.printStackTrace();
-            return 0;
-        }
+        return WeatherTime.toLocalClock(secs, TZ);
     }
 
 
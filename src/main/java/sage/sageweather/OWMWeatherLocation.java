@@ -2,27 +2,27 @@ package sageweather;
 
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 import org.apache.commons.lang.StringUtils;
 
 public class OWMWeatherLocation implements IWeatherLocation {
 
-    private long lastChecked = 0;
-    private Date lastUpdated = null;
-    private Date recordedDate = null;
-    private int ttl = 180;
+    private volatile long lastChecked = 0;
     private boolean locationRetrieved = false;
-    private boolean disallowUpdates = false;
-    private boolean hasWeather = false;
+    private volatile boolean disallowUpdates = false;
+    //all of the weather from the last update, replaced as a whole so readers never see a partial update
+    private final AtomicReference<ForecastSnapshot> snapshot = new AtomicReference<>();
+    private volatile boolean snapshotLoaded = false;
+    private volatile ForecastSnapshot restored = null;
 
-    private String error;
+    private volatile String error;
+    private volatile RefreshPolicy.Volatility volatility = RefreshPolicy.Volatility.Normal;
+    private volatile ApiQuota.Priority quotaPriority = ApiQuota.Priority.Location;
 
     private geoLocation gLocation = new geoLocation();
 
     private String locationID;
 
-    private IForecastPeriod currentForecast;
-    private List<ILongRangeForecast> longRangeForecast;
-
     /**
      * Create a weather location for a known locationID
      * Loads location details from properties
@@ -94,76 +94,76 @@ public class OWMWeatherLocation implements IWeatherLocation {
 
     @Override
     public boolean update() {
+        return update(false);
+    }
+
+    /**
+     * Updates the weather - a forced update skips the check that the current weather has expired
+     * and is used by the background scheduler to refresh shortly before expiry
+     */
+    public boolean update(boolean force) {
         error = null;
         setLastChecked(System.currentTimeMillis());
 
         //make sure updates are allowed if a userKey has been entered in the sageTV config
-        if (hasUserKey()){
+        if (utils.hasUserKey()){
             disallowUpdates = false;
         }
+        if (disallowUpdates){
+            return false;
+        }
 
-        if (!disallowUpdates){
-            if (!isConfigured()) {
-                Log.info("OWMWeatherLocation","OWM: update called but location is not configured - exiting");
-                error = "Latitude and Longitude or a valid location are required";
-                return false;
-            }
-            Log.info("OWMWeatherLocation","OWM: update - configuration is valid");
-
-            if (shouldUpdate()) {
-                String units = null;
-
-                if (getUnits() == Units.Metric) {
-                    units = "metric";
-                } else {
-                    units = "imperial";
-                }
-
-                try {
-
-                    String urlLocation = "lat=" + gLocation.getLatitude() + "&lon=" + gLocation.getLongitude();
-                    //String urlUnits = "&units=" + utils.encode(units);
-                    String urlUnits = "&units=" + units;
-
-                    //check for user key from the weather config or OWM.properties
-                    //if not found then do not allow more than 1 update
-                    String urlExclude = "&exclude=hourly,alerts,minutely";
-                    String urlAPIKey = "&appid=" + utils.getAPIKey();
-                    //String rssUrl = "https://api.darksky.net/forecast/" + utils.encode(k) + "/" + urlLocation + "?" + urlUnits;
-                    String rssUrl = "https://api.openweathermap.org/data/3.0/onecall?" + urlLocation + urlExclude + urlUnits + urlAPIKey;
-                    Log.info("OWMWeatherLocation","OWM: update - Getting OWM Weather - url = '" + rssUrl + "'");
-
-                    OWMWeatherJsonHandler handler = new OWMWeatherJsonHandler();
-                    //handler.parse(rssUrl, city, region, country);
-                    handler.parse(rssUrl,getUnits());
-                    hasWeather = true;
-
-                    lastUpdated = new Date(System.currentTimeMillis());
-
-                    currentForecast = handler.getCurrent();
-                    longRangeForecast = handler.getDays();
-                    recordedDate = handler.getRecordedDate();
-
-                    //see if we are using a userkey - otherwise do not allow further updates
-                    if (!hasUserKey()){
-                        if (utils.isTesting()){
-                            Log.info("OWMWeatherLocation","OWM: update - user key override for testing set - update processed");
-                            disallowUpdates = false;
-                        }else{
-                            Log.info("OWMWeatherLocation","OWM: update -  no user key provided - update not processed");
-                            disallowUpdates = true;
-                        }
+        if (!isConfigured()) {
+            Log.info("OWMWeatherLocation","OWM: update called but location is not configured - exiting");
+            error = "Latitude and Longitude or a valid location are required";
+            return false;
+        }
+        Log.info("OWMWeatherLocation","OWM: update - configuration is valid");
+
+        //a saved snapshot that is still current saves a fetch after a restart
+        loadSnapshot();
+        if (force || shouldUpdate()) {
+            long start = System.currentTimeMillis();
+            boolean updated = false;
+            try {
+                Units units = getUnits();
+                //shared with any other location (or OWM instance) fetching the same place
+                OWMWeatherJsonHandler handler = ForecastFetcher.fetch(gLocation.getLatitude(), gLocation.getLongitude(), units, quotaPriority);
+                ForecastSnapshot next = new ForecastSnapshot(units, handler.getCurrent(), handler.getDays(), handler.getRecordedDate(), new Date(System.currentTimeMillis()));
+                ForecastSnapshot previous = snapshot.getAndSet(next);
+
+                volatility = RefreshPolicy.assess(previous == null ? null : previous.getCurrent(), next.getCurrent(), next.getDays(), units);
+                ForecastStore.save(locationID, next);
+                updated = true;
+                //the developer key only gets one update for each location (ApiQuota limits it further)
+                if (!utils.hasUserKey()){
+                    if (utils.isTesting()){
+                        Log.info("OWMWeatherLocation","OWM: update - user key override for testing set - update processed");
+                    }else{
+                        Log.info("OWMWeatherLocation","OWM: update -  no user key provided - further updates not processed");
+                        disallowUpdates = true;
                     }
-                    return true;
-                } catch (Exception e) {
-                    error = "OWM: update - update failed";
-                    Log.info("OWMWeatherLocation","OWM: update - Failed to update weather for " + gLocation.getLatitude() + "," + gLocation.getLongitude() + " : " + e);
                 }
+                return true;
+            } catch (ApiQuota.QuotaExceededException e) {
+                error = "OWM: update - API call limit reached";
+                Log.info("OWMWeatherLocation","OWM: update - " + e.getMessage());
+            } catch (CircuitBreaker.CircuitOpenException e) {
+                //known outage - failed without waiting on the provider
+                error = e.getMessage();
+                Log.info("OWMWeatherLocation","OWM: update - " + e.getMessage());
+            } catch (Exception e) {
+                error = "OWM: update - update failed";
+                Log.info("OWMWeatherLocation","OWM: update - Failed to update weather for " + gLocation.getLatitude() + "," + gLocation.getLongitude() + " : " + e);
+            } finally {
+                if (!updated) {
+                    //so a location failing since startup is still reported as stale
+                    loadSnapshot();
+                }
+                WeatherMetrics.recordUpdate(locationID, getLocationName(), System.currentTimeMillis() - start, updated);
             }
-
         }
 
-
         return false;
     }
 
@@ -185,26 +185,38 @@ public class OWMWeatherLocation implements IWeatherLocation {
     @Override
     public void setUnits(Units units){
         disallowUpdates = false;
-        lastUpdated=null;
         gLocation.setUnits(units);
+        //keep showing the current weather until it has been fetched in the new units
+        ForecastSnapshot current = snapshot.get();
+        while (current != null && current.getLastUpdated() != null && !snapshot.compareAndSet(current, current.expired())) {
+            current = snapshot.get();
+        }
+    }
+
+    /**
+     * Returns all of the weather from the last update as one consistent snapshot, or null if there is none yet
+     */
+    public ForecastSnapshot getSnapshot() {
+        loadSnapshot();
+        return snapshot.get();
     }
 
     @Override
     public IForecastPeriod getCurrentWeather() {
-        return currentForecast;
+        ForecastSnapshot current = getSnapshot();
+        return current == null ? null : current.getCurrent();
     }
 
     @Override
     public List<ILongRangeForecast> getForecasts() {
-        return longRangeForecast;
+        ForecastSnapshot current = getSnapshot();
+        return current == null ? null : current.getDays();
     }
 
     @Override
     public int getForecastDays() {
-        if (longRangeForecast != null) {
-            return longRangeForecast.size();
-        }
-        return 0;
+        ForecastSnapshot current = getSnapshot();
+        return current == null ? 0 : current.getDays().size();
     }
 
     @Override
@@ -220,7 +232,8 @@ public class OWMWeatherLocation implements IWeatherLocation {
 
     @Override
     public Date getLastUpdated() {
-        return lastUpdated;
+        ForecastSnapshot current = getSnapshot();
+        return current == null ? null : current.getLastUpdated();
     }
 
     public long getLastChecked() {
@@ -233,7 +246,8 @@ public class OWMWeatherLocation implements IWeatherLocation {
 
     @Override
     public Date getRecordedDate() {
-        return recordedDate;
+        ForecastSnapshot current = getSnapshot();
+        return current == null ? null : current.getRecordedDate();
     }
 
     @Override
@@ -262,26 +276,76 @@ public class OWMWeatherLocation implements IWeatherLocation {
     }
 
     /**
-     * Returns the Larger of the configured Updated Interval vs the Weather's TTL
+     * Loads the weather saved before the last restart the first time it is needed
+     *  - only used until the first update so the screen has something to show while that runs
+     */
+    private void loadSnapshot() {
+        if (snapshotLoaded) {
+            return;
+        }
+        snapshotLoaded = true;
+        ForecastSnapshot saved = ForecastStore.load(locationID);
+        if (saved != null) {
+            WeatherMetrics.seedLocation(locationID, getLocationName(), saved.getLastUpdated());
+        }
+        if (saved == null || saved.getUnits() != getUnits()) {
+            return;
+        }
+        //an update that finished first wins
+        if (snapshot.compareAndSet(null, saved)) {
+            restored = saved;
+        }
+    }
+
+    /**
+     * Returns true while the weather shown is the snapshot saved before the last restart
+     */
+    public boolean isFromSnapshot() {
+        loadSnapshot();
+        ForecastSnapshot current = snapshot.get();
+        return current != null && current == restored;
+    }
+
+    /**
+     * Returns the configured Update Interval which is how long fetched weather is considered current
      */
     private int getTTLInSeconds() {
-        int ttl1=ttl * 60;
-        int ttl2=utils.getUpdateInterval();
-        return Math.max(ttl1,ttl2);
+        return utils.getUpdateInterval();
     }
 
     private boolean shouldUpdate() {
+        Date lastUpdated = getLastUpdated();
         if (lastUpdated == null){
             return true;
         }
         long later = lastUpdated.getTime() + (getTTLInSeconds() * 1000);
         if (System.currentTimeMillis() > later)
             return true;
-        Log.info("OWMWeatherLocation","OWM: shouldUpdate - Not time to perform an update. Last update at '" + lastUpdated + "'");
+        if (Log.isDebugEnabled("OWMWeatherLocation")) {
+            Log.debug("OWMWeatherLocation","OWM: shouldUpdate - Not time to perform an update. Last update at '" + lastUpdated + "'");
+        }
         return false;
     }
 
+    /**
+     * How quickly the weather here changed between the last two updates - drives the background refresh interval
+     */
+    public RefreshPolicy.Volatility getVolatility() {
+        return volatility;
+    }
+
+    /**
+     * Priority this location's updates get from the api quota - the default location goes first
+     */
+    public ApiQuota.Priority getQuotaPriority() {
+        return quotaPriority;
+    }
+
+    public void setQuotaPriority(ApiQuota.Priority quotaPriority) {
+        this.quotaPriority = quotaPriority;
+    }
+
     public boolean hasWeather() {
-        return hasWeather;
+        return getSnapshot() != null;
     }
 }
@@ -0,0 +1,149 @@
+package sageweather;
+
+import java.util.*;
+
+/**
+ * Decides how often each location should be refreshed
+ *  - volatile weather (precipitation, severe condition codes, fast temperature or pressure changes
+ *    between snapshots) is refreshed more often, calm clear weather less often
+ *  - the resulting intervals are stretched when needed so all locations together stay within the calls
+ *    a day ApiQuota allows the key in use for location refreshes
+ */
+public class RefreshPolicy {
+    public static final String adaptiveRefreshKey = Const.BaseProp + Const.PropDivider + Const.WeatherProp + Const.PropDivider + "AdaptiveRefresh";
+    public static final String minUpdateIntervalKey = Const.BaseProp + Const.PropDivider + Const.WeatherProp + Const.PropDivider + "MinUpdateInterval";
+    public static final String maxUpdateIntervalKey = Const.BaseProp + Const.PropDivider + Const.WeatherProp + Const.PropDivider + "MaxUpdateInterval";
+    public static final int defaultMinUpdateInterval = 30; // minutes
+    public static final int defaultMaxUpdateInterval = 360; // minutes
+    private static final long dayMS = 24 * 60 * 60 * 1000L;
+
+    /**
+     * How quickly the weather at a location is changing
+     */
+    public static enum Volatility {
+        Calm, Normal, Volatile
+    }
+
+    //thunderstorms, hail, tornado and the like - see the OWM id to code table in ConditionCodes
+    private static final Set<Integer> severeCodes = new HashSet<>(Arrays.asList(0, 1, 2, 3, 4, 17, 23, 24, 35, 37, 38, 39, 45, 47));
+    //clear, fair and cloudy skies
+    private static final Set<Integer> calmCodes = new HashSet<>(Arrays.asList(26, 27, 28, 29, 30, 31, 32, 33, 34, 36, 44));
+
+    //last wanted interval for every scheduled location, used to keep the total within the budget
+    private static final Map<OWMWeatherLocation, Long> wantedIntervals = Collections.synchronizedMap(new WeakHashMap<OWMWeatherLocation, Long>());
+
+    /**
+     * Compares the previous and new current weather and the forecast for today
+     */
+    public static Volatility assess(IForecastPeriod previous, IForecastPeriod current, List<ILongRangeForecast> days, IWeatherLocation.Units units) {
+        if (current == null) {
+            return Volatility.Normal;
+        }
+        int code = current.getCode();
+        if (severeCodes.contains(code)) {
+            return Volatility.Volatile;
+        }
+        if (current.getPrecipType() != null && current.getPrecipType() != IForecastPeriod.PrecipType.None) {
+            return Volatility.Volatile;
+        }
+        double tempDelta = 0;
+        double pressureDelta = 0;
+        if (previous != null) {
+            if (previous.getTemp() != IForecastPeriod.iInvalid && current.getTemp() != IForecastPeriod.iInvalid) {
+                tempDelta = Math.abs(current.getTemp() - previous.getTemp());
+            }
+            Double pressure = utils.convertStringtoDouble(current.getPressure());
+            Double previousPressure = utils.convertStringtoDouble(previous.getPressure());
+            if (!pressure.equals(IForecastPeriod.dInvalid) && !previousPressure.equals(IForecastPeriod.dInvalid)) {
+                pressureDelta = Math.abs(pressure - previousPressure);
+            }
+        }
+        //about 3C either way
+        double fastTemp = units == IWeatherLocation.Units.Metric ? 3 : 5;
+        if (tempDelta >= fastTemp || pressureDelta >= 3) {
+            return Volatility.Volatile;
+        }
+        if (calmCodes.contains(code) && tempDelta < fastTemp / 3 && pressureDelta < 1 && !precipExpectedToday(days)) {
+            return Volatility.Calm;
+        }
+        return Volatility.Normal;
+    }
+
+    /**
+     * Returns the interval a location should be refreshed at, already limited by the daily budget
+     */
+    public static long getIntervalMS(OWMWeatherLocation weather) {
+        long baseMS = utils.getUpdateInterval() * 1000L;
+        long wantedMS = baseMS;
+        if (isAdaptive()) {
+            Volatility volatility = weather.getVolatility();
+            if (volatility == Volatility.Volatile) {
+                wantedMS = baseMS / 2;
+            } else if (volatility == Volatility.Calm) {
+                wantedMS = baseMS + baseMS / 2;
+            }
+            wantedMS = Math.max(getMinIntervalMS(), Math.min(getMaxIntervalMS(), wantedMS));
+        }
+        wantedIntervals.put(weather, wantedMS);
+        return applyBudget(wantedMS);
+    }
+
+    /**
+     * Stops counting a location against the daily budget
+     */
+    public static void forget(OWMWeatherLocation weather) {
+        wantedIntervals.remove(weather);
+    }
+
+    /**
+     * Returns the expected calls per day if every location is refreshed at its wanted interval
+     */
+    public static double getExpectedCallsPerDay() {
+        double calls = 0;
+        synchronized (wantedIntervals) {
+            for (Long interval : wantedIntervals.values()) {
+                calls += (double) dayMS / Math.max(1, interval);
+            }
+        }
+        return calls;
+    }
+
+    private static long applyBudget(long wantedMS) {
+        double calls = getExpectedCallsPerDay();
+        int budget = getDailyCallBudget();
+        if (calls <= budget) {
+            return wantedMS;
+        }
+        //stretch every interval by the same factor so the total lands on the budget
+        return (long) Math.ceil(wantedMS * (calls / budget));
+    }
+
+    private static boolean precipExpectedToday(List<ILongRangeForecast> days) {
+        if (days == null || days.isEmpty() || days.get(0).getForecastPeriodDay() == null) {
+            return false;
+        }
+        IForecastPeriod today = days.get(0).getForecastPeriodDay();
+        return today.getPrecipType() != null && today.getPrecipType() != IForecastPeriod.PrecipType.None;
+    }
+
+    public static boolean isAdaptive() {
+        if (OWM.wProps == null) {
+            return true;
+        }
+        return Boolean.parseBoolean(utils.GetServerProperty(adaptiveRefreshKey, "true"));
+    }
+
+    public static int getDailyCallBudget() {
+        return Math.max(1, ApiQuota.getDailyLimit(ApiQuota.Priority.Location));
+    }
+
+    private static long getMinIntervalMS() {
+        int minutes = OWM.wProps == null ? defaultMinUpdateInterval : utils.GetServerPropertyAsInteger(minUpdateIntervalKey, defaultMinUpdateInterval);
+        return Math.max(1, minutes) * 60 * 1000L;
+    }
+
+    private static long getMaxIntervalMS() {
+        int minutes = OWM.wProps == null ? defaultMaxUpdateInterval : utils.GetServerPropertyAsInteger(maxUpdateIntervalKey, defaultMaxUpdateInterval);
+        return Math.max(1, minutes) * 60 * 1000L;
+    }
+}
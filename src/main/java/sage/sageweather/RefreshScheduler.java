@@ -0,0 +1,187 @@
+package sageweather;
+
+import java.lang.ref.WeakReference;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+
+/**
+ * Owns the refresh timing for the locations of an OWM instance
+ *  - each location is refreshed in the background shortly before its weather expires so getters
+ *    always have a current snapshot to serve and never need to fetch
+ *  - every location gets its own random jitter so locations added together do not all refresh together
+ *  - the refresh interval starts from the UpdateInterval weather property (minutes) and is adjusted per
+ *    location by RefreshPolicy
+ */
+public class RefreshScheduler {
+    public static final String schedulerEnabledKey = Const.BaseProp + Const.PropDivider + Const.WeatherProp + Const.PropDivider + "BackgroundRefresh";
+    private static final long tickMS = 30 * 1000;
+    private static final long maxLeadMS = 5 * 60 * 1000;
+    private static final long firstRefreshSpreadMS = 15 * 1000;
+    private static final long snapshotRevalidateSpreadMS = 60 * 1000;
+    private static final long retryDelayMS = 5 * 60 * 1000;
+
+    private static ScheduledExecutorService timer = null;
+
+    private final WeakReference<OWM> owner;
+    private final ConcurrentHashMap<OWMWeatherLocation, Long> nextRefresh = new ConcurrentHashMap<>();
+    private final Random random = new Random();
+    private ScheduledFuture<?> tick = null;
+
+    public RefreshScheduler(OWM owner) {
+        //weak so a discarded OWM instance stops its own schedule
+        this.owner = new WeakReference<>(owner);
+    }
+
+    public synchronized void start() {
+        if (tick != null) {
+            return;
+        }
+        tick = getTimer().scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                tick();
+            }
+        }, 0, tickMS, TimeUnit.MILLISECONDS);
+        Log.info("RefreshScheduler","RefreshScheduler: start - background refresh about every " + (utils.getUpdateInterval() / 60) + " minutes within the api quota for the key in use");
+    }
+
+    public synchronized void stop() {
+        if (tick != null) {
+            tick.cancel(false);
+            tick = null;
+        }
+        for (OWMWeatherLocation weather : nextRefresh.keySet()) {
+            RefreshPolicy.forget(weather);
+        }
+        nextRefresh.clear();
+    }
+
+    public synchronized boolean isRunning() {
+        return tick != null;
+    }
+
+    /**
+     * Returns the time in ms the location is next due to refresh, or 0 if it is not scheduled yet
+     */
+    public long getNextRefresh(OWMWeatherLocation weather) {
+        Long next = nextRefresh.get(weather);
+        return next == null ? 0 : next;
+    }
+
+    /**
+     * Forces a location to be rescheduled on the next tick - used when its settings change
+     */
+    public void reschedule(OWMWeatherLocation weather) {
+        nextRefresh.remove(weather);
+    }
+
+    void tick() {
+        OWM owm = owner.get();
+        if (owm == null) {
+            stop();
+            return;
+        }
+        WeatherLocations locations = owm.GetWeatherLocations();
+        if (locations == null) {
+            return;
+        }
+        try {
+            long now = System.currentTimeMillis();
+            Set<OWMWeatherLocation> current = Collections.newSetFromMap(new IdentityHashMap<OWMWeatherLocation, Boolean>());
+            for (geoLocation loc : locations.sortedList()) {
+                OWMWeatherLocation weather = loc.getWeather();
+                current.add(weather);
+                if (WeatherRefresher.isRefreshing(loc)) {
+                    continue;
+                }
+                Long due = nextRefresh.get(weather);
+                if (due == null) {
+                    due = firstRefresh(weather, now);
+                    nextRefresh.put(weather, due);
+                }
+                if (now >= due) {
+                    refresh(loc);
+                }
+            }
+            //forget locations that have been removed
+            for (OWMWeatherLocation weather : nextRefresh.keySet()) {
+                if (!current.contains(weather)) {
+                    nextRefresh.remove(weather);
+                    RefreshPolicy.forget(weather);
+                }
+            }
+        } catch (Throwable t) {
+            //never let an error cancel the schedule
+            Log.info("RefreshScheduler","RefreshScheduler: tick - failed: " + t);
+        }
+    }
+
+    private void refresh(final geoLocation loc) {
+        final OWMWeatherLocation weather = loc.getWeather();
+        //push the due time out while the refresh runs so the next tick does not start it again
+        nextRefresh.put(weather, Long.MAX_VALUE);
+        WeatherRefresher.refreshAsync(loc, true).whenComplete(new BiConsumer<WeatherRefresher.Result, Throwable>() {
+            @Override
+            public void accept(WeatherRefresher.Result result, Throwable t) {
+                long now = System.currentTimeMillis();
+                long next;
+                Date lastUpdated = weather.getLastUpdated();
+                if (result != null && result.isUpdated() && lastUpdated != null) {
+                    next = nextAfter(weather, lastUpdated.getTime());
+                } else {
+                    next = now + retryDelayMS + jitter(retryDelayMS);
+                }
+                nextRefresh.replace(weather, Long.MAX_VALUE, next);
+            }
+        });
+    }
+
+    private long firstRefresh(OWMWeatherLocation weather, long now) {
+        Date lastUpdated = weather.getLastUpdated();
+        if (lastUpdated == null) {
+            //nothing to show yet so refresh soon, spread out a little
+            return now + (long) (random.nextDouble() * firstRefreshSpreadMS);
+        }
+        if (weather.isFromSnapshot()) {
+            //showing the weather saved before a restart - revalidate it once things have settled
+            return now + firstRefreshSpreadMS + (long) (random.nextDouble() * snapshotRevalidateSpreadMS);
+        }
+        return nextAfter(weather, lastUpdated.getTime());
+    }
+
+    /**
+     * Next refresh time for weather updated at the passed time - shortly before it expires
+     */
+    private long nextAfter(OWMWeatherLocation weather, long lastUpdated) {
+        long intervalMS = RefreshPolicy.getIntervalMS(weather);
+        long lead = Math.min(maxLeadMS, intervalMS / 10);
+        return lastUpdated + intervalMS - lead - jitter(intervalMS);
+    }
+
+    private long jitter(long intervalMS) {
+        //up to 5% of the interval
+        return (long) (random.nextDouble() * intervalMS * 0.05);
+    }
+
+    public static boolean isEnabled() {
+        if (OWM.wProps == null) {
+            return true;
+        }
+        return Boolean.parseBoolean(utils.GetServerProperty(schedulerEnabledKey, "true"));
+    }
+
+    private static synchronized ScheduledExecutorService getTimer() {
+        if (timer == null) {
+            timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "GWeather-scheduler");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return timer;
+    }
+}
@@ -0,0 +1,81 @@
+package sageweather;
+
+import java.util.concurrent.*;
+
+/**
+ * Collapses concurrent requests for the same key into one piece of work
+ *  - the first caller for a key starts the work, later callers get the same future until it completes
+ *  - once the work completes the key is released so the next caller starts fresh work
+ */
+public class SingleFlight<K, V> {
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Runs the work on the executor unless the same key is already in flight
+     *
+     * @return future for the in flight or newly started work
+     */
+    public CompletableFuture<V> submit(K key, final Callable<V> work, Executor executor) {
+        final CompletableFuture<V> created = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            return existing;
+        }
+        final K flightKey = key;
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    complete(flightKey, created, work);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(key, created);
+            created.completeExceptionally(e);
+        }
+        return created;
+    }
+
+    /**
+     * Runs the work on the calling thread unless the same key is already in flight, in which case
+     * this waits for and returns the in flight result
+     */
+    public V call(K key, Callable<V> work) throws Exception {
+        CompletableFuture<V> created = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, created);
+        if (existing == null) {
+            complete(key, created, work);
+            existing = created;
+        }
+        try {
+            return existing.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return true if work for this key is running now
+     */
+    public boolean isInFlight(K key) {
+        return inFlight.containsKey(key);
+    }
+
+    public int size() {
+        return inFlight.size();
+    }
+
+    private void complete(K key, CompletableFuture<V> future, Callable<V> work) {
+        try {
+            V value = work.call();
+            inFlight.remove(key, future);
+            future.complete(value);
+        } catch (Throwable t) {
+            inFlight.remove(key, future);
+            future.completeExceptionally(t);
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package sageweather;
 
-import java.io.File;
 import java.util.*;
 
 /**
@@ -88,27 +87,11 @@ public class WIcons {
     }
 
     public static String ConvertURLtoCondition(String ConditionURL, Boolean ForceDay){
-        String Condition = "";
         Integer tIcon = ConditionURL.lastIndexOf("/");
         if (tIcon==-1){
             return ConditionURL;
         }else{
-            Condition = ConditionURL.substring(tIcon+1);
-            Condition = Condition.replaceAll(".gif", "");
-            Condition = Condition.replaceAll(".jpg", "");
-            Condition = Condition.replaceAll(".png", "");
-            //remove any % that are part of the image string
-            if (Condition.contains("0")){
-                Condition = Condition.replaceAll("10", "");
-                Condition = Condition.replaceAll("20", "");
-                Condition = Condition.replaceAll("30", "");
-                Condition = Condition.replaceAll("40", "");
-                Condition = Condition.replaceAll("50", "");
-                Condition = Condition.replaceAll("60", "");
-                Condition = Condition.replaceAll("70", "");
-                Condition = Condition.replaceAll("80", "");
-                Condition = Condition.replaceAll("90", "");
-            }
+            String Condition = GetConditionFromURL(ConditionURL, tIcon);
 
             String tCondition = GetWeatherIcon(Condition, ForceDay);
             //Log.info("WIcons","ConvertURLtoCondition: Condition '" + Condition + "' tCondition '" + tCondition + "' URL '" + ConditionURL + "'");
@@ -121,13 +104,56 @@ public class WIcons {
         }
     }
 
+    //the same few icon urls come round on every render so remember what they parse to
+    private static final int ConditionMemoSize = 256;
+    private static final Map<String,String> ConditionMemo = new LinkedHashMap<String,String>(64, 0.75f, true){
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String,String> eldest) {
+            return size() > ConditionMemoSize;
+        }
+    };
+
+    private static String GetConditionFromURL(String ConditionURL, int lastSlash){
+        synchronized (ConditionMemo){
+            String Condition = ConditionMemo.get(ConditionURL);
+            if (Condition==null){
+                Condition = ParseCondition(ConditionURL, lastSlash + 1);
+                ConditionMemo.put(ConditionURL, Condition);
+            }
+            return Condition;
+        }
+    }
+
+    /**
+     * Returns the icon name from the end of an icon url in one pass
+     *  - drops .gif/.jpg/.png
+     *  - drops percent values (10 to 90) such as the 40 in ra40.png
+     */
+    static String ParseCondition(String ConditionURL, int start){
+        int end = ConditionURL.length();
+        StringBuilder sb = new StringBuilder(end - start);
+        int i = start;
+        while (i < end){
+            char c = ConditionURL.charAt(i);
+            if (c=='.' && (ConditionURL.startsWith("gif", i + 1) || ConditionURL.startsWith("jpg", i + 1) || ConditionURL.startsWith("png", i + 1))){
+                i += 4;
+            }else if (c>='1' && c<='9' && i + 1 < end && ConditionURL.charAt(i + 1)=='0'){
+                i += 2;
+            }else{
+                sb.append(c);
+                i++;
+            }
+        }
+        return sb.toString();
+    }
+
     public static String GetWeatherIconURLDay(String ConditionURL){
         String tCondition = ConvertURLtoCondition(ConditionURL, Boolean.TRUE);
         if (tCondition.equals(ConditionURL)){
             Log.info("WIcons","WIcons: GetWeatherIconURLDay - unhandled url - please report '" + ConditionURL + "'");
             return ConditionURL;
         }else{
-            return GetWeatherPath() + tCondition + ".png";
+            return GetWeatherIconByNumber(tCondition);
         }
     }
     public static String GetWeatherIconURL(String ConditionURL){
@@ -137,26 +163,27 @@ public class WIcons {
             Log.info("WIcons","WIcons: GetWeatherIconURL - unhandled url - please report '" + ConditionURL + "'");
             return ConditionURL;
         }else{
-            return GetWeatherPath() + tCondition + ".png";
+            return GetWeatherIconByNumber(tCondition);
         }
     }
     public static String GetWeatherIconByNumber(String ConditionNumber){
-        //Log.info("WIcons","GetWeatherIconByNumber: returning '" + GetWeatherPath() + ConditionNumber + ".png'");
-        return GetWeatherPath() + ConditionNumber + ".png";
+        String tSet = utils.getWeatherIconSet();
+        if (tSet.equals(Const.OptionNotFound)){
+            return GetWeatherPath() + ConditionNumber + ".png";
+        }
+        return GetWeatherIconByNumber(ConditionNumber, tSet);
     }
     public static String GetWeatherIconByNumber(int ConditionNumber){
-        //Log.info("WIcons","GetWeatherIconByNumber: returning '" + GetWeatherPath() + ConditionNumber + ".png'");
-        return GetWeatherPath() + ConditionNumber + ".png";
+        return GetWeatherIconByNumber(String.valueOf(ConditionNumber));
     }
 
+    //resolved against the icon catalog so a set missing an icon falls back to the default set
     public static String GetWeatherIconByNumber(String ConditionNumber, String WeatherSet){
-        //Log.info("WIcons","GetWeatherIconByNumber: returning '" + GetWeatherPath() + ConditionNumber + ".png'");
-        return GetWeatherPath(WeatherSet) + ConditionNumber + ".png";
+        return IconCatalog.getInstance().resolve(WeatherSet, ConditionNumber);
     }
 
     public static String GetWeatherIconByNumber(int ConditionNumber, String WeatherSet){
-        //Log.info("WIcons","GetWeatherIconByNumber: returning '" + GetWeatherPath() + ConditionNumber + ".png'");
-        return GetWeatherPath(WeatherSet) + ConditionNumber + ".png";
+        return GetWeatherIconByNumber(String.valueOf(ConditionNumber), WeatherSet);
     }
 
     public static String GetWeatherIconNoURLDay(String ConditionURL){
@@ -246,7 +273,7 @@ public class WIcons {
         }
     }
     public static String GetWeatherPath(String WeatherSet){
-        return utils.WeatherLocation() + File.separator + "Icons" + File.separator + WeatherSet + File.separator;
+        return IconCatalog.getInstance().getPath(WeatherSet);
     }
 
     //functions for managing sets of icons
@@ -264,16 +291,7 @@ public class WIcons {
     }
 
     public static Collection<String> GetIconSets(){
-        SortedSet<String> tList = new TreeSet<String>();
-        File IconSetLoc = new File(new File(utils.WeatherLocation()), "Icons");
-        File[] files = IconSetLoc.listFiles();
-        for (File file : files){
-            if (file.isDirectory()){
-                tList.add(file.getName());
-            }
-        }
-        Log.info("WIcons","GetIconSets: found '" + tList + "'");
-        return tList;
+        return IconCatalog.getInstance().getSets();
     }
 
     public static Collection<String> GetIconList(){
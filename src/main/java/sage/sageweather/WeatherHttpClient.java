@@ -0,0 +1,315 @@
+package sageweather;
+
+import org.apache.commons.lang.math.NumberUtils;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * HTTP transport used for all OpenWeatherMap requests
+ *  - connections are kept alive and reused by the JDK connection cache as long as each response is
+ *    fully read and closed, which Response.close() takes care of
+ *  - asks for gzip and decodes it so the parsers always see plain json
+ *  - connect and read timeouts are read from the weather properties (ConnectTimeout/ReadTimeout in ms)
+ *  - connection failures and 5xx answers are retried (FetchRetries) with capped exponential backoff, each
+ *    attempt counted by ApiQuota, and a call that fails every attempt counts once with the CircuitBreaker
+ *    for the host, which fails calls fast while the provider is down
+ */
+public class WeatherHttpClient {
+    public static final String connectTimeoutKey = Const.BaseProp + Const.PropDivider + Const.WeatherProp + Const.PropDivider + "ConnectTimeout";
+    public static final String readTimeoutKey = Const.BaseProp + Const.PropDivider + Const.WeatherProp + Const.PropDivider + "ReadTimeout";
+    public static final int defaultConnectTimeout = 10000;
+    public static final int defaultReadTimeout = 20000;
+    public static final String fetchRetriesKey = Const.BaseProp + Const.PropDivider + Const.WeatherProp + Const.PropDivider + "FetchRetries";
+    public static final int defaultFetchRetries = 2;
+    private static final Backoff retryBackoff = new Backoff(500, 5000);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int maxDrainBytes = 64 * 1024;
+
+    /**
+     * Thrown when the server answers with an error status
+     */
+    public static class HttpStatusException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+        private final int retryAfterSecs;
+
+        public HttpStatusException(String url, int status) {
+            this(url, status, 0);
+        }
+        public HttpStatusException(String url, int status, int retryAfterSecs) {
+            super("HTTP " + status + " for '" + url + "'");
+            this.status = status;
+            this.retryAfterSecs = retryAfterSecs;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        /**
+         * Seconds the server asked us to wait (Retry-After), or 0 if it did not say
+         */
+        public int getRetryAfterSecs() {
+            return retryAfterSecs;
+        }
+    }
+
+    /**
+     * An open response - the body must be closed so the connection can be reused
+     */
+    public static class Response implements Closeable {
+        private final HttpURLConnection conn;
+        private final int status;
+        private final InputStream raw;
+        private final InputStream body;
+
+        private Response(HttpURLConnection conn, int status, InputStream raw, InputStream body) {
+            this.conn = conn;
+            this.status = status;
+            this.raw = raw;
+            this.body = body;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public String getHeader(String name) {
+            return conn.getHeaderField(name);
+        }
+
+        /**
+         * @return the decoded (un-gzipped) body
+         */
+        public InputStream getBody() {
+            return body;
+        }
+
+        public Reader getReader() {
+            return new BufferedReader(new InputStreamReader(body, UTF8));
+        }
+
+        /**
+         * Reads whatever is left of the body so the connection goes back to the keep-alive cache
+         */
+        @Override
+        public void close() {
+            if (raw == null) {
+                return;
+            }
+            try {
+                drain(body);
+                if (body != raw) {
+                    drain(raw);
+                }
+            } catch (IOException e) {
+                //a broken stream cannot be reused - drop the connection
+                conn.disconnect();
+            } finally {
+                try{body.close();}catch(IOException e){}
+                try{raw.close();}catch(IOException e){}
+            }
+        }
+
+        private static void drain(InputStream in) throws IOException {
+            byte[] buffer = new byte[4096];
+            int total = 0;
+            int read;
+            while (total < maxDrainBytes && (read = in.read(buffer)) != -1) {
+                total += read;
+            }
+        }
+    }
+
+    /**
+     * Opens a GET request and returns the response with its body ready to stream
+     *  - every attempt, retries included, must be admitted by ApiQuota at the passed priority
+     *  - the circuit breaker sees one success or failure per call however many attempts it took
+     *
+     * @throws HttpStatusException for any non 2xx/304 status
+     * @throws ApiQuota.QuotaExceededException if the quota refused an attempt
+     */
+    public static Response get(String url) throws IOException {
+        return get(url, null, ApiQuota.Priority.Location);
+    }
+    public static Response get(String url, java.util.Map<String, String> headers, ApiQuota.Priority priority) throws IOException {
+        CircuitBreaker breaker = CircuitBreaker.forUrl(url);
+        if (!breaker.allowRequest()) {
+            throw new CircuitBreaker.CircuitOpenException(breaker.getStatusMessage());
+        }
+        int retries = getFetchRetries();
+        IOException failure = null;
+        for (int attempt = 0; attempt <= retries; attempt++) {
+            if (attempt > 0) {
+                long delay = retryBackoff.getDelayMS(attempt - 1);
+                Log.info("WeatherHttpClient","WeatherHttpClient: get - attempt " + attempt + " failed (" + failure + ") - retrying in " + delay + "ms");
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    breaker.recordFailure(failure);
+                    throw new InterruptedIOException("Interrupted waiting to retry '" + stripKey(url) + "'");
+                }
+            }
+            if (!ApiQuota.tryAcquire(url, priority)) {
+                if (failure == null) {
+                    //nothing was sent so the provider has not been tried
+                    breaker.releaseRequest();
+                } else {
+                    breaker.recordFailure(failure);
+                }
+                throw new ApiQuota.QuotaExceededException("API quota used for '" + stripKey(url) + "'");
+            }
+            long start = System.currentTimeMillis();
+            try {
+                Response response = send(url, headers);
+                WeatherMetrics.recordFetch(System.currentTimeMillis() - start, true);
+                breaker.recordSuccess();
+                return response;
+            } catch (HttpStatusException e) {
+                WeatherMetrics.recordFetch(System.currentTimeMillis() - start, false);
+                if (e.getStatus() < 500) {
+                    //the provider is up, it just did not like the request
+                    breaker.recordSuccess();
+                    throw e;
+                }
+                failure = e;
+            } catch (IOException e) {
+                WeatherMetrics.recordFetch(System.currentTimeMillis() - start, false);
+                failure = e;
+            }
+        }
+        breaker.recordFailure(failure);
+        throw failure;
+    }
+
+    private static Response send(String url, java.util.Map<String, String> headers) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        conn.setConnectTimeout(getConnectTimeout());
+        conn.setReadTimeout(getReadTimeout());
+        conn.setUseCaches(false);
+        conn.setRequestProperty("Accept", "application/json");
+        conn.setRequestProperty("Accept-Encoding", "gzip");
+        conn.setRequestProperty("User-Agent", "GWeather/" + utils.getVersion());
+        if (headers != null) {
+            for (java.util.Map.Entry<String, String> header : headers.entrySet()) {
+                conn.setRequestProperty(header.getKey(), header.getValue());
+            }
+        }
+
+        int status = conn.getResponseCode();
+        if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            return new Response(conn, status, null, new ByteArrayInputStream(new byte[0]));
+        }
+        if (status < 200 || status >= 300) {
+            //read and discard the error body so the connection can still be reused
+            InputStream err = conn.getErrorStream();
+            if (err != null) {
+                new Response(conn, status, err, err).close();
+            }
+            throw new HttpStatusException(stripKey(url), status, NumberUtils.toInt(conn.getHeaderField("Retry-After"), 0));
+        }
+
+        InputStream raw = new MeteredInputStream(conn.getInputStream());
+        InputStream body = raw;
+        if ("gzip".equalsIgnoreCase(conn.getContentEncoding())) {
+            body = new GZIPInputStream(raw, 8192);
+        }
+        return new Response(conn, status, raw, new BufferedInputStream(body, 8192));
+    }
+
+    /**
+     * Counts the bytes read off the wire (before gzip decoding) for WeatherMetrics
+     */
+    private static class MeteredInputStream extends FilterInputStream {
+        private MeteredInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                WeatherMetrics.recordBytes(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                WeatherMetrics.recordBytes(read);
+            }
+            return read;
+        }
+    }
+
+    /**
+     * Reads a full response body into a String - prefer streaming the Response where possible
+     */
+    public static String getAsString(String url) throws IOException {
+        Response response = get(url);
+        try {
+            StringBuilder sb = new StringBuilder();
+            Reader reader = response.getReader();
+            char[] buffer = new char[4096];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                sb.append(buffer, 0, read);
+            }
+            return sb.toString();
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Removes the appid so urls can be logged or used as keys without exposing the api key
+     */
+    public static String stripKey(String url) {
+        if (url == null) {
+            return null;
+        }
+        int start = url.indexOf("appid=");
+        if (start == -1) {
+            return url;
+        }
+        int end = url.indexOf('&', start);
+        String prefix = url.substring(0, start);
+        if (end == -1) {
+            //drop the separator that led to the appid as well
+            if (prefix.endsWith("&") || prefix.endsWith("?")) {
+                prefix = prefix.substring(0, prefix.length() - 1);
+            }
+            return prefix;
+        }
+        return prefix + url.substring(end + 1);
+    }
+
+    public static int getConnectTimeout() {
+        if (OWM.wProps == null) {
+            return defaultConnectTimeout;
+        }
+        return utils.GetServerPropertyAsInteger(connectTimeoutKey, defaultConnectTimeout);
+    }
+
+    public static int getReadTimeout() {
+        if (OWM.wProps == null) {
+            return defaultReadTimeout;
+        }
+        return utils.GetServerPropertyAsInteger(readTimeoutKey, defaultReadTimeout);
+    }
+
+    public static int getFetchRetries() {
+        if (OWM.wProps == null) {
+            return defaultFetchRetries;
+        }
+        return Math.max(0, utils.GetServerPropertyAsInteger(fetchRetriesKey, defaultFetchRetries));
+    }
+}
@@ -1,6 +1,8 @@
 package sageweather;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by jusjoken on 7/15/2021.
@@ -8,8 +10,10 @@ import java.util.*;
 public class WeatherLocations {
 
     //create a map of the geoLocations using the locationID as the key
-    Map<String, geoLocation> mapLocations = new HashMap<>();
-    private String defaultLocation = "";
+    //concurrent as the refresh scheduler and refresh pool read it while the UI changes it
+    final Map<String, geoLocation> mapLocations = new ConcurrentHashMap<>();
+    private volatile String defaultLocation = "";
+    private volatile Map<String, WeatherRefresher.Result> lastRefresh = new HashMap<>();
 
     public WeatherLocations() {
     }
@@ -19,7 +23,9 @@ public class WeatherLocations {
     }
 
     public void setMapLocations(Map<String, geoLocation> mapLocations) {
-        this.mapLocations = mapLocations;
+        //copied so the passed map can not be changed behind the scheduler's back
+        this.mapLocations.clear();
+        this.mapLocations.putAll(mapLocations);
     }
 
     //perform an update on a specific location
@@ -27,21 +33,32 @@ public class WeatherLocations {
         if (id==null){
             return update();
         }else{
-            return mapLocations.get(id).getWeather().update();
+            return updateAsync(id).join().isUpdated();
         }
     }
 
-    //perform an update on all locations
+    //start an update on a specific location without waiting for it to finish
+    public CompletableFuture<WeatherRefresher.Result> updateAsync(String id){
+        return WeatherRefresher.refreshAsync(get(id));
+    }
+
+    //perform an update on all locations - locations are refreshed in parallel
     public boolean update(){
         boolean anyTrue = false;
-        for (geoLocation item:sortedList() ) {
-            if (item.getWeather().update()){
+        lastRefresh = WeatherRefresher.refresh(sortedList());
+        for (WeatherRefresher.Result result:lastRefresh.values()) {
+            if (result.isUpdated()){
                 anyTrue = true;
             }
         }
         return anyTrue;
     }
 
+    //per location results of the last full update
+    public Map<String, WeatherRefresher.Result> getLastRefresh() {
+        return lastRefresh;
+    }
+
     public long getLastChecked() {
         long minChecked = System.currentTimeMillis();
         for (geoLocation item:sortedList() ) {
@@ -58,6 +75,7 @@ public class WeatherLocations {
         if (defaultLocation.isEmpty()){
             defaultLocation = location.getID();
         }
+        updateQuotaPriorities();
     }
 
     public void add(geoLocation location, boolean isDefault){
@@ -68,8 +86,7 @@ public class WeatherLocations {
     }
 
     public boolean remove(String id){
-        if (mapLocations.containsKey(id)){
-            mapLocations.remove(id);
+        if (id!=null && mapLocations.remove(id)!=null){
             if (id.equals(getDefaultID())){
                 if (mapLocations.size()>0){
                     //select the first entry and set it as the default
@@ -85,7 +102,7 @@ public class WeatherLocations {
     }
 
     public boolean hasLocation(String id){
-            return mapLocations.containsKey(id);
+            return id!=null && mapLocations.containsKey(id);
     }
 
     public boolean hasLocations(){
@@ -93,11 +110,11 @@ public class WeatherLocations {
     }
 
     public geoLocation get(String id){
-        return mapLocations.get(id);
+        return id==null ? null : mapLocations.get(id);
     }
 
     public OWMWeatherLocation getWeather(String id){
-        return mapLocations.get(id).getWeather();
+        return get(id).getWeather();
     }
 
     public geoLocation getDefault(){
@@ -109,6 +126,16 @@ public class WeatherLocations {
     }
     public void setDefaultID(String id){
         defaultLocation = id;
+        updateQuotaPriorities();
+    }
+
+    //the default location is refreshed first when the api quota is nearly used
+    private void updateQuotaPriorities(){
+        for (geoLocation loc:mapLocations.values()) {
+            if (loc.getWeather()!=null){
+                loc.getWeather().setQuotaPriority(loc.getID().equals(defaultLocation) ? ApiQuota.Priority.Default : ApiQuota.Priority.Location);
+            }
+        }
     }
 
     public void clear(){
@@ -0,0 +1,403 @@
+package sageweather;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and timings for the weather update pipeline
+ *  - fetch latency (time to the response headers of each attempt), body read (time spent waiting on the
+ *    body while it streams into the parser), parse (the rest of the parse time), update and search times
+ *    are kept as histograms with fixed millisecond buckets
+ *  - bytes downloaded, api calls per key, response cache results and the time since each location last
+ *    updated successfully (seeded from the saved snapshot so locations failing since startup show up) are
+ *    counted as well
+ *  - everything is readable through the WeatherMetrics MBean and as plain text from dump() (OWM.GetMetrics)
+ *  - recording is a few atomic adds so it is safe on every call path
+ */
+public class WeatherMetrics implements WeatherMetricsMBean {
+    public static final String objectName = "sageweather:type=WeatherMetrics";
+    private static final WeatherMetrics instance = new WeatherMetrics();
+    private static boolean registered = false;
+
+    /**
+     * Cache results counted by the response cache
+     */
+    public static enum CacheResult {
+        Hit, Revalidated, Fallback, Miss
+    }
+
+    /**
+     * Millisecond histogram with fixed bucket bounds
+     */
+    public static class Timer {
+        private static final long[] bounds = {5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000};
+        private final AtomicLongArray buckets = new AtomicLongArray(bounds.length + 1);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalMS = new LongAdder();
+        private final AtomicLong maxMS = new AtomicLong();
+
+        public void record(long ms) {
+            int bucket = 0;
+            while (bucket < bounds.length && ms > bounds[bucket]) {
+                bucket++;
+            }
+            buckets.incrementAndGet(bucket);
+            count.increment();
+            totalMS.add(ms);
+            long max = maxMS.get();
+            while (ms > max && !maxMS.compareAndSet(max, ms)) {
+                max = maxMS.get();
+            }
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public double getMeanMS() {
+            long tCount = count.sum();
+            return tCount == 0 ? 0 : (double) totalMS.sum() / tCount;
+        }
+
+        public long getMaxMS() {
+            return maxMS.get();
+        }
+
+        private void dump(StringBuilder sb, String name) {
+            long cumulative = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                cumulative += buckets.get(i);
+                sb.append(name).append("_ms_bucket{le=\"").append(bounds[i]).append("\"} ").append(cumulative).append('\n');
+            }
+            cumulative += buckets.get(bounds.length);
+            sb.append(name).append("_ms_bucket{le=\"+Inf\"} ").append(cumulative).append('\n');
+            sb.append(name).append("_ms_count ").append(count.sum()).append('\n');
+            sb.append(name).append("_ms_sum ").append(totalMS.sum()).append('\n');
+            sb.append(name).append("_ms_max ").append(maxMS.get()).append('\n');
+        }
+
+        private void reset() {
+            for (int i = 0; i < buckets.length(); i++) {
+                buckets.set(i, 0);
+            }
+            count.reset();
+            totalMS.reset();
+            maxMS.set(0);
+        }
+    }
+
+    /**
+     * Adds up the time spent waiting in read calls so body reads can be told apart from parsing
+     */
+    public static class TimedInputStream extends FilterInputStream {
+        private long readNanos = 0;
+
+        public TimedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            try {
+                return super.read();
+            } finally {
+                readNanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            try {
+                return super.read(b, off, len);
+            } finally {
+                readNanos += System.nanoTime() - start;
+            }
+        }
+
+        public long getReadNanos() {
+            return readNanos;
+        }
+    }
+
+    private static class LocationState {
+        private final String name;
+        private final long lastSuccess;
+
+        private LocationState(String name, long lastSuccess) {
+            this.name = name;
+            this.lastSuccess = lastSuccess;
+        }
+    }
+
+    private final Timer fetch = new Timer();
+    private final Timer read = new Timer();
+    private final Timer parse = new Timer();
+    private final Timer update = new Timer();
+    private final Timer search = new Timer();
+    private final LongAdder fetchFailures = new LongAdder();
+    private final LongAdder updateFailures = new LongAdder();
+    private final LongAdder searchFailures = new LongAdder();
+    private final LongAdder bytesDownloaded = new LongAdder();
+    private final LongAdder[] cacheResults = new LongAdder[CacheResult.values().length];
+    private final ConcurrentHashMap<String, LongAdder> apiCalls = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LocationState> locations = new ConcurrentHashMap<>();
+
+    private WeatherMetrics() {
+        for (int i = 0; i < cacheResults.length; i++) {
+            cacheResults[i] = new LongAdder();
+        }
+    }
+
+    public static WeatherMetrics getInstance() {
+        return instance;
+    }
+
+    /**
+     * Registers the MBean with the platform MBean server - safe to call more than once
+     */
+    public static synchronized void register() {
+        if (registered) {
+            return;
+        }
+        registered = true;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(objectName);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(instance, name);
+            }
+        } catch (Exception e) {
+            Log.info("WeatherMetrics","WeatherMetrics: register - unable to register MBean '" + objectName + "' : " + e);
+        }
+    }
+
+    public static void recordFetch(long ms, boolean success) {
+        instance.fetch.record(ms);
+        if (!success) {
+            instance.fetchFailures.increment();
+        }
+    }
+
+    public static void recordBytes(long bytes) {
+        instance.bytesDownloaded.add(bytes);
+    }
+
+    public static void recordRead(long ms) {
+        instance.read.record(ms);
+    }
+
+    public static void recordParse(long ms) {
+        instance.parse.record(ms);
+    }
+
+    public static void recordSearch(long ms, boolean success) {
+        instance.search.record(ms);
+        if (!success) {
+            instance.searchFailures.increment();
+        }
+    }
+
+    public static void recordCache(CacheResult result) {
+        instance.cacheResults[result.ordinal()].increment();
+    }
+
+    /**
+     * Counts a call admitted for a key - pass the hashed key id, never the key itself
+     */
+    public static void recordApiCall(String keyId) {
+        LongAdder calls = instance.apiCalls.get(keyId);
+        if (calls == null) {
+            instance.apiCalls.putIfAbsent(keyId, new LongAdder());
+            calls = instance.apiCalls.get(keyId);
+        }
+        calls.increment();
+    }
+
+    public static void recordUpdate(String locationID, String name, long ms, boolean success) {
+        instance.update.record(ms);
+        if (success) {
+            if (locationID != null) {
+                instance.locations.put(locationID, new LocationState(name, System.currentTimeMillis()));
+            }
+        } else {
+            instance.updateFailures.increment();
+        }
+    }
+
+    /**
+     * Starts the staleness of a location from its last success before this run, unless it has updated since
+     */
+    public static void seedLocation(String locationID, String name, Date lastSuccess) {
+        if (locationID != null && lastSuccess != null) {
+            instance.locations.putIfAbsent(locationID, new LocationState(name, lastSuccess.getTime()));
+        }
+    }
+
+    public static void forgetLocation(String locationID) {
+        if (locationID != null) {
+            instance.locations.remove(locationID);
+        }
+    }
+
+    @Override
+    public long getFetchCount() {
+        return fetch.getCount();
+    }
+
+    @Override
+    public long getFetchFailures() {
+        return fetchFailures.sum();
+    }
+
+    @Override
+    public double getFetchMeanMS() {
+        return fetch.getMeanMS();
+    }
+
+    @Override
+    public long getFetchMaxMS() {
+        return fetch.getMaxMS();
+    }
+
+    @Override
+    public long getReadCount() {
+        return read.getCount();
+    }
+
+    @Override
+    public double getReadMeanMS() {
+        return read.getMeanMS();
+    }
+
+    @Override
+    public long getParseCount() {
+        return parse.getCount();
+    }
+
+    @Override
+    public double getParseMeanMS() {
+        return parse.getMeanMS();
+    }
+
+    @Override
+    public long getUpdateCount() {
+        return update.getCount();
+    }
+
+    @Override
+    public long getUpdateFailures() {
+        return updateFailures.sum();
+    }
+
+    @Override
+    public double getUpdateMeanMS() {
+        return update.getMeanMS();
+    }
+
+    @Override
+    public long getSearchCount() {
+        return search.getCount();
+    }
+
+    @Override
+    public long getBytesDownloaded() {
+        return bytesDownloaded.sum();
+    }
+
+    @Override
+    public long getApiCalls() {
+        long total = 0;
+        for (LongAdder calls : apiCalls.values()) {
+            total += calls.sum();
+        }
+        return total;
+    }
+
+    @Override
+    public int getApiCallsToday() {
+        return ApiQuota.getCallsToday();
+    }
+
+    /**
+     * Part of the cached responses asked for that were served without downloading a body
+     */
+    @Override
+    public double getCacheHitRatio() {
+        long served = cacheResults[CacheResult.Hit.ordinal()].sum() + cacheResults[CacheResult.Revalidated.ordinal()].sum()
+                + cacheResults[CacheResult.Fallback.ordinal()].sum();
+        long total = served + cacheResults[CacheResult.Miss.ordinal()].sum();
+        return total == 0 ? 0 : (double) served / total;
+    }
+
+    @Override
+    public long getMaxStalenessSecs() {
+        long now = System.currentTimeMillis();
+        long max = 0;
+        for (LocationState state : locations.values()) {
+            max = Math.max(max, now - state.lastSuccess);
+        }
+        return max / 1000;
+    }
+
+    /**
+     * Returns every metric as name value lines in the Prometheus text format
+     */
+    @Override
+    public String dump() {
+        StringBuilder sb = new StringBuilder(4096);
+        fetch.dump(sb, "gweather_fetch");
+        sb.append("gweather_fetch_failures_total ").append(fetchFailures.sum()).append('\n');
+        sb.append("gweather_bytes_downloaded_total ").append(bytesDownloaded.sum()).append('\n');
+        read.dump(sb, "gweather_read");
+        parse.dump(sb, "gweather_parse");
+        update.dump(sb, "gweather_update");
+        sb.append("gweather_update_failures_total ").append(updateFailures.sum()).append('\n');
+        search.dump(sb, "gweather_search");
+        sb.append("gweather_search_failures_total ").append(searchFailures.sum()).append('\n');
+        for (CacheResult result : CacheResult.values()) {
+            sb.append("gweather_cache_total{result=\"").append(result).append("\"} ").append(cacheResults[result.ordinal()].sum()).append('\n');
+        }
+        sb.append("gweather_cache_hit_ratio ").append(String.format(Locale.ROOT, "%.3f", getCacheHitRatio())).append('\n');
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<String, LongAdder>(apiCalls).entrySet()) {
+            sb.append("gweather_api_calls_total{key=\"").append(entry.getKey()).append("\"} ").append(entry.getValue().sum()).append('\n');
+        }
+        sb.append("gweather_api_calls_today ").append(getApiCallsToday()).append('\n');
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, LocationState> entry : new TreeMap<String, LocationState>(locations).entrySet()) {
+            sb.append("gweather_location_staleness_seconds{id=\"").append(entry.getKey()).append("\",name=\"")
+                    .append(String.valueOf(entry.getValue().name).replace("\"", "'")).append("\"} ")
+                    .append((now - entry.getValue().lastSuccess) / 1000).append('\n');
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void reset() {
+        fetch.reset();
+        read.reset();
+        parse.reset();
+        update.reset();
+        search.reset();
+        fetchFailures.reset();
+        updateFailures.reset();
+        searchFailures.reset();
+        bytesDownloaded.reset();
+        for (LongAdder result : cacheResults) {
+            result.reset();
+        }
+        apiCalls.clear();
+        //locations still configured report again on their next update
+        locations.clear();
+    }
+}
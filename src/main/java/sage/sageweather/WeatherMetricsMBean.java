@@ -0,0 +1,44 @@
+package sageweather;
+
+/**
+ * JMX view of WeatherMetrics - registered as sageweather:type=WeatherMetrics
+ */
+public interface WeatherMetricsMBean {
+    long getFetchCount();
+
+    long getFetchFailures();
+
+    double getFetchMeanMS();
+
+    long getFetchMaxMS();
+
+    long getReadCount();
+
+    double getReadMeanMS();
+
+    long getParseCount();
+
+    double getParseMeanMS();
+
+    long getUpdateCount();
+
+    long getUpdateFailures();
+
+    double getUpdateMeanMS();
+
+    long getSearchCount();
+
+    long getBytesDownloaded();
+
+    long getApiCalls();
+
+    int getApiCallsToday();
+
+    double getCacheHitRatio();
+
+    long getMaxStalenessSecs();
+
+    String dump();
+
+    void reset();
+}
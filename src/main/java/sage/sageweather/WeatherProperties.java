@@ -1,13 +1,52 @@
 package sageweather;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by jusjoken on 7/31/2021.
+ *
+ * The weather properties and their GWeatherLocations properties file
+ *  - save() only marks the properties changed, the file is written once by a background writer after
+ *    saveDelayMS so a burst of changes (adding many locations) costs one write
+ *  - the file is written to a temp file, synced and then renamed over the old one so a crash part way
+ *    through can never leave a truncated file
+ *  - changes not written yet are flushed at shutdown and before the same file is loaded again
+ *  - the String properties are also kept in a sorted index so prefix lookups are a range of it and keys
+ *    come back sorted without any copying - change the properties through put, setProperty, remove,
+ *    putAll or clear so the index stays in step
  */
 public class WeatherProperties extends java.util.Properties {
+    private static final long saveDelayMS = 1000;
+    private static ScheduledExecutorService writer = null;
+    //instances with changes not written yet keyed on their file
+    private static final ConcurrentHashMap<String, WeatherProperties> unsaved = new ConcurrentHashMap<>();
+
+    //sorted copy of the String properties for prefix lookups and key order
+    private final ConcurrentSkipListMap<String, String> index = new ConcurrentSkipListMap<>();
     private String propFileSuffix = "";
+    private final Object saveLock = new Object();
+    private final Object writeLock = new Object();
+    private File pendingFile = null;
 
     public WeatherProperties() {
         this("");
@@ -29,42 +68,105 @@ public class WeatherProperties extends java.util.Properties {
     }
 
     @Override
-    public synchronized Enumeration<Object> keys() {
+    public synchronized Object put(Object key, Object value) {
+        Object old = super.put(key, value);
+        if (key instanceof String && value instanceof String) {
+            index.put((String) key, (String) value);
+        } else {
+            index.remove(key);
+        }
+        return old;
+    }
+
+    @Override
+    public synchronized Object remove(Object key) {
+        index.remove(key);
+        return super.remove(key);
+    }
+
+    @Override
+    public synchronized void putAll(Map<?, ?> t) {
+        for (Map.Entry<?, ?> entry : t.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        index.clear();
+        super.clear();
+    }
+
+    @Override
+    public Enumeration<Object> keys() {
         return sortedKeys();
     }
 
-    public java.util.Enumeration sortedKeys()
+    public Enumeration<Object> sortedKeys()
     {
-        java.util.Enumeration keysEnum = super.keys();
-        java.util.Vector keyList = new java.util.Vector();
+        final Iterator<String> keys = index.keySet().iterator();
+        return new Enumeration<Object>() {
+            @Override
+            public boolean hasMoreElements() {
+                return keys.hasNext();
+            }
 
-        while(keysEnum.hasMoreElements())
-        {
-            keyList.add((String)keysEnum.nextElement());
+            @Override
+            public Object nextElement() {
+                return keys.next();
+            }
+        };
+    }
+
+    /**
+     * Returns a live, read only view of the properties whose names start with the prefix, keyed by the
+     * full property name in sorted order
+     *  - found in O(log n) and it is safe to put or remove properties while iterating it
+     */
+    public SortedMap<String, String> getPropertiesView(String prefix)
+    {
+        String end = prefixEnd(prefix);
+        if (end == null) {
+            return Collections.unmodifiableSortedMap(index.tailMap(prefix, true));
         }
-        java.util.Collections.sort(keyList);
-        return keyList.elements();
+        return Collections.unmodifiableSortedMap(index.subMap(prefix, true, end, false));
     }
 
+    /**
+     * Returns a copy of the properties whose names start with the prefix, keyed by the rest of the name
+     */
     public Map getPropertiesWithPrefix(String prefix)
     {
-        java.util.Enumeration walker = super.propertyNames();
-        java.util.Map rv = new java.util.HashMap();
-        while (walker.hasMoreElements())
-        {
-            Object elem = walker.nextElement();
-            if (elem != null && elem.toString().startsWith(prefix))
-            {
-                rv.put(elem.toString().substring(prefix.length()), super.getProperty(elem.toString()));
-            }
+        SortedMap<String, String> view = getPropertiesView(prefix);
+        Map<String, String> rv = new HashMap<String, String>();
+        for (Map.Entry<String, String> entry : view.entrySet()) {
+            rv.put(entry.getKey().substring(prefix.length()), entry.getValue());
         }
         return rv;
     }
 
+    //first name after every name that starts with the prefix, or null if nothing sorts after them
+    private static String prefixEnd(String prefix)
+    {
+        int last = prefix.length() - 1;
+        while (last >= 0 && prefix.charAt(last) == Character.MAX_VALUE) {
+            last--;
+        }
+        if (last < 0) {
+            return null;
+        }
+        return prefix.substring(0, last) + (char) (prefix.charAt(last) + 1);
+    }
+
     public void load()
     {
 
         java.io.File locationFile = new java.io.File(utils.GetWeatherLocationsFullPath(this.propFileSuffix));
+        //another instance may still be holding changes for this file
+        WeatherProperties other = unsaved.get(locationFile.getPath());
+        if (other != null && other != this) {
+            other.flush();
+        }
         java.io.InputStream in = null;
         try
         {
@@ -85,30 +187,133 @@ public class WeatherProperties extends java.util.Properties {
         }
     }
 
+    /**
+     * Queues the properties to be written - changes made within saveDelayMS are written together
+     */
     public void save(){
-        java.io.File locationFile = new java.io.File(utils.GetWeatherLocationsFullPath(this.propFileSuffix));
-        java.io.OutputStream out = null;
+        File locationFile = new File(utils.GetWeatherLocationsFullPath(this.propFileSuffix));
+        synchronized (saveLock) {
+            if (pendingFile != null) {
+                //a write is already queued and will pick up this change
+                return;
+            }
+            pendingFile = locationFile;
+        }
+        unsaved.put(locationFile.getPath(), this);
+        getWriter().schedule(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, saveDelayMS, TimeUnit.MILLISECONDS);
+    }
 
-        try
-        {
-            out = new java.io.BufferedOutputStream(new java.io.FileOutputStream(locationFile));
-            Log.info("WeatherProperties","WeatherProperties: save - out file '" + locationFile + "'");
-            super.store(out, "Google Weather Plugin version " + utils.getVersion() + ": SageTV Weather Data provided by OWM");
+    /**
+     * Writes any queued changes now
+     */
+    public void flush(){
+        File locationFile;
+        synchronized (saveLock) {
+            locationFile = pendingFile;
+            pendingFile = null;
         }
-        catch (Exception e)
-        {
-            Log.info("WeatherProperties","WeatherProperties: save - Error writing weather properties data of:" + e);
+        if (locationFile == null) {
+            return;
         }
-        finally
-        {
-            if (out != null)
+        unsaved.remove(locationFile.getPath(), this);
+        write(locationFile);
+    }
+
+    public boolean hasUnsavedChanges(){
+        synchronized (saveLock) {
+            return pendingFile != null;
+        }
+    }
+
+    private void write(File locationFile){
+        synchronized (writeLock) {
+            //copied inside the lock so an older copy can never be written over a newer one, and copied at all
+            //so readers and writers are not held up by the disk
+            Properties snapshot = new SortedSnapshot(index);
+            File temp = new File(locationFile.getPath() + ".tmp");
+            FileOutputStream out = null;
+            try
             {
-                try{out.close();}catch(Exception e){}
+                out = new FileOutputStream(temp);
+                java.io.BufferedOutputStream buffered = new java.io.BufferedOutputStream(out);
+                Log.info("WeatherProperties","WeatherProperties: save - out file '" + locationFile + "'");
+                snapshot.store(buffered, "Google Weather Plugin version " + utils.getVersion() + ": SageTV Weather Data provided by OWM");
+                buffered.flush();
+                out.getFD().sync();
+                out.close();
                 out = null;
+                try {
+                    Files.move(temp.toPath(), locationFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp.toPath(), locationFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            catch (Exception e)
+            {
+                Log.info("WeatherProperties","WeatherProperties: save - Error writing weather properties data of:" + e);
+                temp.delete();
+            }
+            finally
+            {
+                if (out != null)
+                {
+                    try{out.close();}catch(IOException e){}
+                    temp.delete();
+                }
             }
         }
     }
 
-}
+    /**
+     * Copy of the properties that stores its keys in sorted order - store() walks keys() on Java 8 and
+     * entrySet() on later versions so both follow the sorted copy
+     */
+    private static class SortedSnapshot extends Properties {
+        private static final long serialVersionUID = 1L;
+        private final TreeMap<Object, Object> sorted = new TreeMap<Object, Object>();
+
+        private SortedSnapshot(Map<String, String> values) {
+            sorted.putAll(values);
+            super.putAll(values);
+        }
 
+        @Override
+        public synchronized Enumeration<Object> keys() {
+            return Collections.enumeration(sorted.keySet());
+        }
 
+        @Override
+        public Set<Map.Entry<Object, Object>> entrySet() {
+            return Collections.unmodifiableSet(sorted.entrySet());
+        }
+    }
+
+    private static synchronized ScheduledExecutorService getWriter(){
+        if (writer == null) {
+            writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "GWeather-PropertiesWriter");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            //the writer is a daemon so anything still queued is written here
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (WeatherProperties props : unsaved.values()) {
+                        props.flush();
+                    }
+                }
+            }, "GWeather-PropertiesFlush"));
+        }
+        return writer;
+    }
+
+}
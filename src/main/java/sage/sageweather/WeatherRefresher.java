@@ -0,0 +1,180 @@
+package sageweather;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Refreshes many weather locations at once
+ *  - each location update runs on a bounded, shared worker pool so a full refresh takes about as long
+ *    as the slowest location instead of the sum of all of them
+ *  - the pool size is read from the weather properties (RefreshThreads) on every refresh
+ */
+public class WeatherRefresher {
+    public static final String refreshThreadsKey = Const.BaseProp + Const.PropDivider + Const.WeatherProp + Const.PropDivider + "RefreshThreads";
+    public static final int defaultRefreshThreads = 4;
+    private static final int maxRefreshThreads = 32;
+
+    private static ThreadPoolExecutor pool = null;
+    //keyed on the weather object so each OWM instance only joins its own location updates
+    private static final SingleFlight<OWMWeatherLocation, Result> inFlight = new SingleFlight<>();
+
+    /**
+     * Outcome of a single location refresh
+     */
+    public static class Result {
+        private final String locationID;
+        private final boolean updated;
+        private final String error;
+        private final long elapsedMS;
+
+        public Result(String locationID, boolean updated, String error, long elapsedMS) {
+            this.locationID = locationID;
+            this.updated = updated;
+            this.error = error;
+            this.elapsedMS = elapsedMS;
+        }
+
+        public String getLocationID() {
+            return locationID;
+        }
+
+        public boolean isUpdated() {
+            return updated;
+        }
+
+        public boolean hasError() {
+            return error != null;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public long getElapsedMS() {
+            return elapsedMS;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{" +
+                    "locationID=" + locationID +
+                    ", updated=" + updated +
+                    ", error=" + error +
+                    ", elapsedMS=" + elapsedMS +
+                    '}';
+        }
+    }
+
+    /**
+     * Updates all the passed locations in parallel and waits for them to finish
+     * Results are merged in the order the locations complete
+     *
+     * @return map of locationID to the refresh result for that location
+     */
+    public static Map<String, Result> refresh(Collection<geoLocation> locations){
+        final Map<String, Result> results = Collections.synchronizedMap(new LinkedHashMap<String, Result>());
+        if (locations==null || locations.isEmpty()){
+            return results;
+        }
+        long start = System.currentTimeMillis();
+        List<CompletableFuture<Result>> futures = new ArrayList<>();
+        for (geoLocation loc:locations) {
+            futures.add(refreshAsync(loc).whenComplete(new BiConsumer<Result, Throwable>() {
+                @Override
+                public void accept(Result result, Throwable t) {
+                    if (result!=null){
+                        results.put(result.getLocationID(), result);
+                        if (result.hasError()){
+                            Log.info("WeatherRefresher","WeatherRefresher: refresh - location '" + result.getLocationID() + "' failed in " + result.getElapsedMS() + "ms : " + result.getError());
+                        }
+                    }
+                }
+            }));
+        }
+
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Log.info("WeatherRefresher","WeatherRefresher: refresh - interrupted with " + (futures.size() - results.size()) + " locations outstanding");
+        } catch (ExecutionException e) {
+            //tasks catch their own failures so this should not happen
+            Log.info("WeatherRefresher","WeatherRefresher: refresh - unexpected failure: " + e.getCause());
+        }
+        Log.info("WeatherRefresher","WeatherRefresher: refresh - " + results.size() + " of " + futures.size() + " locations refreshed in " + (System.currentTimeMillis() - start) + "ms");
+        return results;
+    }
+
+    /**
+     * Starts an update for a single location and returns without waiting
+     *  - if an update for this location is already running the returned future is for that update
+     *
+     * @return future completed with the refresh result
+     */
+    public static CompletableFuture<Result> refreshAsync(geoLocation loc){
+        return refreshAsync(loc, false);
+    }
+    public static CompletableFuture<Result> refreshAsync(geoLocation loc, boolean force){
+        return inFlight.submit(loc.getWeather(), newTask(loc, force), getPool());
+    }
+
+    /**
+     * @return true if an update for this location is running now
+     */
+    public static boolean isRefreshing(geoLocation loc){
+        return inFlight.isInFlight(loc.getWeather());
+    }
+
+    private static Callable<Result> newTask(final geoLocation loc, final boolean force){
+        return new Callable<Result>() {
+            @Override
+            public Result call() {
+                long start = System.currentTimeMillis();
+                OWMWeatherLocation weather = loc.getWeather();
+                try {
+                    boolean updated = weather.update(force);
+                    return new Result(loc.getID(), updated, weather.getError(), System.currentTimeMillis() - start);
+                } catch (Throwable t) {
+                    return new Result(loc.getID(), false, "OWM: update - update failed: " + t, System.currentTimeMillis() - start);
+                }
+            }
+        };
+    }
+
+    public static int getRefreshThreads(){
+        int threads = defaultRefreshThreads;
+        if (OWM.wProps!=null){
+            threads = utils.GetServerPropertyAsInteger(refreshThreadsKey, defaultRefreshThreads);
+        }
+        return Math.max(1, Math.min(threads, maxRefreshThreads));
+    }
+
+    private static synchronized ExecutorService getPool(){
+        int threads = getRefreshThreads();
+        if (pool==null){
+            final AtomicInteger count = new AtomicInteger();
+            pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "GWeather-refresh-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            pool.allowCoreThreadTimeOut(true);
+        }else if (pool.getMaximumPoolSize()!=threads){
+            //grow before shrinking so core never exceeds max
+            if (threads > pool.getMaximumPoolSize()){
+                pool.setMaximumPoolSize(threads);
+                pool.setCorePoolSize(threads);
+            }else{
+                pool.setCorePoolSize(threads);
+                pool.setMaximumPoolSize(threads);
+            }
+        }
+        return pool;
+    }
+
+}
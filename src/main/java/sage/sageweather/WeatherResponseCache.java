@@ -0,0 +1,537 @@
+package sageweather;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent cache of OpenWeatherMap responses kept in the GWeatherCache folder
+ *  - entries are keyed by the request url without the appid so a key change does not lose the cache
+ *  - the ETag, Last-Modified and Cache-Control max-age of each response are kept with the body
+ *  - a fresh entry is served without any request, a stale entry is revalidated with a conditional
+ *    request and a 304 reply is served from disk with no body transfer
+ *  - entries not stored or revalidated for MaxAgeDays are removed and only the newest MaxEntries are
+ *    kept, so one-off geocoding searches and removed locations do not pile up
+ */
+public class WeatherResponseCache {
+    public static final String cacheEnabledKey = Const.BaseProp + Const.PropDivider + Const.WeatherProp + Const.PropDivider + "ResponseCache";
+    private static final int cacheMagic = 0x47574331; //GWC1
+    private static final String cacheFileExt = ".cache";
+    public static final String maxEntriesKey = Const.BaseProp + Const.PropDivider + Const.WeatherProp + Const.PropDivider + "ResponseCacheMaxEntries";
+    public static final String maxAgeDaysKey = Const.BaseProp + Const.PropDivider + Const.WeatherProp + Const.PropDivider + "ResponseCacheMaxAgeDays";
+    public static final int defaultMaxEntries = 500;
+    public static final int defaultMaxAgeDays = 7;
+    private static final long pruneIntervalMS = 60 * 1000L;
+    private static final long tempMaxAgeMS = 60 * 60 * 1000L;
+    private static final AtomicLong lastPrune = new AtomicLong();
+
+    /**
+     * Header details for a cached response
+     */
+    public static class Entry {
+        private final File file;
+        private final String url;
+        private final String etag;
+        private final String lastModified;
+        private final long storedAt;
+        private final long expiresAt;
+
+        private Entry(File file, String url, String etag, String lastModified, long storedAt, long expiresAt) {
+            this.file = file;
+            this.url = url;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.storedAt = storedAt;
+            this.expiresAt = expiresAt;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        public long getStoredAt() {
+            return storedAt;
+        }
+
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+
+        public boolean isFresh() {
+            return System.currentTimeMillis() < expiresAt;
+        }
+
+        public boolean hasValidators() {
+            return !etag.isEmpty() || !lastModified.isEmpty();
+        }
+
+        /**
+         * @return the cached body positioned after the entry header
+         */
+        public InputStream openBody() throws IOException {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 8192));
+            try {
+                readHeader(file, in);
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+            return in;
+        }
+    }
+
+    /**
+     * Returns the response body for a url from the cache when fresh, otherwise from the network
+     *  - the returned stream must be closed, a body read from the network is stored once fully read
+     */
+    public static InputStream open(String url) throws IOException {
+        return open(url, ApiQuota.Priority.Location);
+    }
+
+    /**
+     * As open(url) but a network call must first be admitted by the api quota at the passed priority
+     *  - when the quota refuses, the provider answers 429 or its circuit breaker is open the cached body
+     *    is returned even if stale
+     *
+     * @throws ApiQuota.QuotaExceededException if the quota refused and nothing is cached
+     * @throws CircuitBreaker.CircuitOpenException if the provider is down and nothing is cached
+     */
+    public static InputStream open(String url, ApiQuota.Priority priority) throws IOException {
+        Entry entry = isEnabled() ? lookup(url) : null;
+        if (entry != null && entry.isFresh()) {
+            Log.info("WeatherResponseCache","WeatherResponseCache: open - fresh cache hit for '" + entry.getUrl() + "'");
+            WeatherMetrics.recordCache(WeatherMetrics.CacheResult.Hit);
+            return entry.openBody();
+        }
+        CircuitBreaker breaker = CircuitBreaker.forUrl(url);
+        if (!breaker.isAvailable()) {
+            //known outage - do not spend quota on it
+            return fallback(url, entry, new CircuitBreaker.CircuitOpenException(breaker.getStatusMessage()));
+        }
+        try {
+            return fetch(url, entry, priority);
+        } catch (CircuitBreaker.CircuitOpenException e) {
+            return fallback(url, entry, e);
+        } catch (ApiQuota.QuotaExceededException e) {
+            return fallback(url, entry, e);
+        } catch (WeatherHttpClient.HttpStatusException e) {
+            if (e.getStatus() != 429) {
+                throw e;
+            }
+            ApiQuota.backOff(url, e.getRetryAfterSecs());
+            return fallback(url, entry, new ApiQuota.QuotaExceededException("API quota used for '" + WeatherHttpClient.stripKey(url) + "'"));
+        }
+    }
+
+    //serve the cached body (even stale) when the provider cannot be called, otherwise fail with the reason
+    private static InputStream fallback(String url, Entry entry, IOException reason) throws IOException {
+        if (entry != null) {
+            Log.info("WeatherResponseCache","WeatherResponseCache: open - " + reason.getMessage() + " - serving cached copy stored " + ((System.currentTimeMillis() - entry.getStoredAt()) / 1000) + "s ago for '" + entry.getUrl() + "'");
+            WeatherMetrics.recordCache(WeatherMetrics.CacheResult.Fallback);
+            return entry.openBody();
+        }
+        throw reason;
+    }
+
+    private static InputStream fetch(String url, Entry entry, ApiQuota.Priority priority) throws IOException {
+        if (!isEnabled()) {
+            return new ResponseStream(WeatherHttpClient.get(url, null, priority), null);
+        }
+
+        Map<String, String> headers = new HashMap<>();
+        if (entry != null) {
+            if (!entry.getEtag().isEmpty()) {
+                headers.put("If-None-Match", entry.getEtag());
+            }
+            if (!entry.getLastModified().isEmpty()) {
+                headers.put("If-Modified-Since", entry.getLastModified());
+            }
+        }
+
+        WeatherHttpClient.Response response = WeatherHttpClient.get(url, headers, priority);
+        if (response.getStatus() == HttpURLConnection.HTTP_NOT_MODIFIED && entry != null) {
+            response.close();
+            Log.info("WeatherResponseCache","WeatherResponseCache: open - not modified for '" + entry.getUrl() + "'");
+            entry = revalidated(entry, response);
+            WeatherMetrics.recordCache(WeatherMetrics.CacheResult.Revalidated);
+            return entry.openBody();
+        }
+        if (response.getStatus() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            //we did not ask for a conditional request so this should not happen
+            response.close();
+            throw new IOException("Unexpected 304 response for '" + WeatherHttpClient.stripKey(url) + "'");
+        }
+        WeatherMetrics.recordCache(WeatherMetrics.CacheResult.Miss);
+        return new ResponseStream(response, isStorable(response) ? url : null);
+    }
+
+    /**
+     * Returns the cached body for a url even when stale, or null if nothing is cached
+     */
+    public static InputStream openCached(String url) {
+        Entry entry = lookup(url);
+        if (entry == null) {
+            return null;
+        }
+        try {
+            return entry.openBody();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public static Entry lookup(String url) {
+        File file = getCacheFile(url);
+        if (!file.isFile()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1024));
+            Entry entry = readHeader(file, in);
+            if (!entry.getUrl().equals(cacheKey(url))) {
+                return null;
+            }
+            return entry;
+        } catch (IOException e) {
+            Log.info("WeatherResponseCache","WeatherResponseCache: lookup - ignoring unreadable cache file '" + file + "' : " + e);
+            return null;
+        } finally {
+            if (in != null) {
+                try{in.close();}catch(IOException e){}
+            }
+        }
+    }
+
+    public static void clear() {
+        File[] files = getCacheDir().listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(cacheFileExt)) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Removes entries older than MaxAgeDays, then the oldest entries over MaxEntries
+     *  - temp files left by an interrupted store are removed after an hour
+     *
+     * @return the number of files removed
+     */
+    public static int prune() {
+        lastPrune.set(System.currentTimeMillis());
+        File[] files = getCacheDir().listFiles();
+        if (files == null) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        long maxAgeMS = getMaxAgeDays() * 24L * 60 * 60 * 1000;
+        int removed = 0;
+        int kept = 0;
+        for (int i = 0; i < files.length; i++) {
+            File file = files[i];
+            String name = file.getName();
+            long age = now - file.lastModified();
+            boolean expired = name.endsWith(cacheFileExt) ? age > maxAgeMS : name.endsWith(".tmp") && age > tempMaxAgeMS;
+            if (expired && file.delete()) {
+                removed++;
+            } else if (name.endsWith(cacheFileExt) && file.isFile()) {
+                files[kept++] = file;
+            }
+        }
+        int maxEntries = getMaxEntries();
+        if (kept > maxEntries) {
+            //a stored or revalidated entry is rewritten so the modified time is its last use
+            final Map<File, Long> modified = new HashMap<>();
+            for (int i = 0; i < kept; i++) {
+                modified.put(files[i], files[i].lastModified());
+            }
+            File[] entries = Arrays.copyOf(files, kept);
+            Arrays.sort(entries, new Comparator<File>() {
+                @Override
+                public int compare(File a, File b) {
+                    return Long.compare(modified.get(a), modified.get(b));
+                }
+            });
+            for (int i = 0; i < kept - maxEntries; i++) {
+                if (entries[i].delete()) {
+                    removed++;
+                }
+            }
+        }
+        if (removed > 0) {
+            Log.info("WeatherResponseCache","WeatherResponseCache: prune - removed " + removed + " cache files");
+        }
+        return removed;
+    }
+
+    private static void pruneIfDue() {
+        long last = lastPrune.get();
+        if (System.currentTimeMillis() - last >= pruneIntervalMS && lastPrune.compareAndSet(last, System.currentTimeMillis())) {
+            prune();
+        }
+    }
+
+    public static int getMaxEntries() {
+        int entries = OWM.wProps == null ? defaultMaxEntries : utils.GetServerPropertyAsInteger(maxEntriesKey, defaultMaxEntries);
+        return Math.max(1, entries);
+    }
+
+    public static int getMaxAgeDays() {
+        int days = OWM.wProps == null ? defaultMaxAgeDays : utils.GetServerPropertyAsInteger(maxAgeDaysKey, defaultMaxAgeDays);
+        return Math.max(1, days);
+    }
+
+    public static boolean isEnabled() {
+        if (OWM.wProps == null) {
+            return true;
+        }
+        return Boolean.parseBoolean(utils.GetServerProperty(cacheEnabledKey, "true"));
+    }
+
+    public static String cacheKey(String url) {
+        return WeatherHttpClient.stripKey(url);
+    }
+
+    private static Entry revalidated(Entry entry, WeatherHttpClient.Response response) throws IOException {
+        long now = System.currentTimeMillis();
+        long maxAge = getMaxAge(response);
+        String etag = headerOr(response.getHeader("ETag"), entry.getEtag());
+        String lastModified = headerOr(response.getHeader("Last-Modified"), entry.getLastModified());
+        Entry updated = new Entry(entry.file, entry.getUrl(), etag, lastModified, now, maxAge > 0 ? now + maxAge * 1000 : now);
+
+        //copy the existing body under the new header
+        File temp = File.createTempFile("gwc", ".tmp", getCacheDir());
+        InputStream body = entry.openBody();
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 8192));
+            try {
+                writeHeader(out, updated);
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = body.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            body.close();
+        }
+        commit(temp, entry.file);
+        return updated;
+    }
+
+    private static boolean isStorable(WeatherHttpClient.Response response) {
+        String cacheControl = response.getHeader("Cache-Control");
+        return cacheControl == null || !cacheControl.toLowerCase().contains("no-store");
+    }
+
+    private static long getMaxAge(WeatherHttpClient.Response response) {
+        String cacheControl = response.getHeader("Cache-Control");
+        if (cacheControl == null) {
+            return 0;
+        }
+        for (String directive : cacheControl.split(",")) {
+            directive = directive.trim().toLowerCase();
+            if (directive.equals("no-cache")) {
+                return 0;
+            }
+            if (directive.startsWith("max-age=")) {
+                try {
+                    return Math.max(0, Long.parseLong(directive.substring("max-age=".length()).trim()));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+
+    private static String headerOr(String value, String defaultValue) {
+        return value == null ? defaultValue : value;
+    }
+
+    private static Entry readHeader(File file, DataInputStream in) throws IOException {
+        if (in.readInt() != cacheMagic) {
+            throw new IOException("not a weather cache file");
+        }
+        String url = in.readUTF();
+        String etag = in.readUTF();
+        String lastModified = in.readUTF();
+        long storedAt = in.readLong();
+        long expiresAt = in.readLong();
+        return new Entry(file, url, etag, lastModified, storedAt, expiresAt);
+    }
+
+    private static void writeHeader(DataOutputStream out, Entry entry) throws IOException {
+        out.writeInt(cacheMagic);
+        out.writeUTF(entry.getUrl());
+        out.writeUTF(entry.getEtag());
+        out.writeUTF(entry.getLastModified());
+        out.writeLong(entry.getStoredAt());
+        out.writeLong(entry.getExpiresAt());
+    }
+
+    private static void commit(File temp, File target) throws IOException {
+        try {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static File getCacheDir() {
+        File dir = new File(utils.GetWeatherCacheDir());
+        if (!dir.isDirectory()) {
+            dir.mkdirs();
+        }
+        return dir;
+    }
+
+    private static File getCacheFile(String url) {
+        return new File(getCacheDir(), sha1(cacheKey(url)) + cacheFileExt);
+    }
+
+    static String sha1(String value) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] digest = md.digest(value.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            return Integer.toHexString(value.hashCode());
+        }
+    }
+
+    /**
+     * Streams a network response to the caller while copying it to a temp cache file
+     *  - the copy only replaces the cache entry if the body was read to the end
+     */
+    private static class ResponseStream extends FilterInputStream {
+        private final WeatherHttpClient.Response response;
+        private final String url;
+        private File temp;
+        private OutputStream copy;
+        private boolean complete = false;
+
+        private ResponseStream(WeatherHttpClient.Response response, String url) {
+            super(response.getBody());
+            this.response = response;
+            this.url = url;
+            if (url != null) {
+                try {
+                    temp = File.createTempFile("gwc", ".tmp", getCacheDir());
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 8192));
+                    long now = System.currentTimeMillis();
+                    long maxAge = getMaxAge(response);
+                    writeHeader(out, new Entry(null, cacheKey(url), headerOr(response.getHeader("ETag"), ""),
+                            headerOr(response.getHeader("Last-Modified"), ""), now, now + maxAge * 1000));
+                    copy = out;
+                } catch (IOException e) {
+                    Log.info("WeatherResponseCache","WeatherResponseCache: unable to create cache file : " + e);
+                    discard();
+                }
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1) {
+                complete = true;
+            } else if (copy != null) {
+                try {
+                    copy.write(b);
+                } catch (IOException e) {
+                    discard();
+                }
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read == -1) {
+                complete = true;
+            } else if (copy != null) {
+                try {
+                    copy.write(b, off, read);
+                } catch (IOException e) {
+                    discard();
+                }
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            //skipped bytes are not copied so the cache copy is no longer usable
+            discard();
+            return super.skip(n);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (copy != null && !complete) {
+                //read the rest through this stream so the cache copy is complete
+                byte[] buffer = new byte[4096];
+                try {
+                    while (read(buffer, 0, buffer.length) != -1) {
+                    }
+                } catch (IOException e) {
+                    discard();
+                }
+            }
+            response.close();
+            if (copy != null) {
+                try {
+                    copy.close();
+                    if (complete) {
+                        commit(temp, getCacheFile(url));
+                        temp = null;
+                        pruneIfDue();
+                    }
+                } catch (IOException e) {
+                    Log.info("WeatherResponseCache","WeatherResponseCache: unable to store cache file : " + e);
+                } finally {
+                    copy = null;
+                }
+            }
+            discard();
+        }
+
+        private void discard() {
+            if (copy != null) {
+                try{copy.close();}catch(IOException e){}
+                copy = null;
+            }
+            if (temp != null) {
+                temp.delete();
+                temp = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package sageweather;
+
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.time.format.TextStyle;
+import java.time.zone.ZoneRules;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shared date and time formatting for the weather data
+ *  - java.time formatters are immutable so one instance serves every thread
+ *  - the rules for each OWM "timezone" value are looked up once and kept
+ *  - day start/end and local day numbers are worked out with offsets instead of formatting and re-parsing text
+ *  - day names come from tables built once for the default locale
+ */
+public class WeatherTime {
+    private static final DateTimeFormatter sunFormat = DateTimeFormatter.ofPattern("h:mm");
+    private static final ConcurrentHashMap<String, ZoneRules> zoneRules = new ConcurrentHashMap<>();
+    private static final int secsPerDay = 24 * 60 * 60;
+
+    private static volatile DayNames dayNames = null;
+
+    private static class DayNames {
+        private final Locale locale;
+        private final String[] shortNames = new String[7];
+        private final String[] fullNames = new String[7];
+
+        private DayNames(Locale locale) {
+            this.locale = locale;
+            for (DayOfWeek day : DayOfWeek.values()) {
+                shortNames[day.ordinal()] = day.getDisplayName(TextStyle.SHORT, locale);
+                fullNames[day.ordinal()] = day.getDisplayName(TextStyle.FULL, locale);
+            }
+        }
+    }
+
+    /**
+     * Returns the rules for an OWM timezone value - unknown values fall back to UTC as TimeZone did
+     */
+    public static ZoneRules getRules(String timeZone) {
+        if (timeZone == null) {
+            return ZoneOffset.UTC.getRules();
+        }
+        ZoneRules rules = zoneRules.get(timeZone);
+        if (rules == null) {
+            try {
+                rules = ZoneId.of(timeZone).getRules();
+            } catch (DateTimeException e) {
+                Log.info("WeatherTime","WeatherTime: getRules - unknown timezone '" + timeZone + "' - using UTC");
+                rules = ZoneOffset.UTC.getRules();
+            }
+            zoneRules.putIfAbsent(timeZone, rules);
+        }
+        return rules;
+    }
+
+    /**
+     * Formats a sunrise or sunset as h:mm in the timezone of the location
+     */
+    public static String formatSunTime(long unixSecs, String timeZone) {
+        Instant instant = Instant.ofEpochSecond(unixSecs);
+        return sunFormat.format(LocalTime.ofSecondOfDay(localSecondOfDay(unixSecs, getRules(timeZone).getOffset(instant))));
+    }
+
+    /**
+     * Returns the time that shows the same clock time here as the passed time shows in the location's timezone
+     *  - this is what day start/end are compared against
+     */
+    public static long toLocalClock(long unixSecs, String timeZone) {
+        Instant instant = Instant.ofEpochSecond(unixSecs);
+        long wallSecs = unixSecs + getRules(timeZone).getOffset(instant).getTotalSeconds();
+        return wallToSystemMS(wallSecs);
+    }
+
+    /**
+     * Returns the current UTC clock time read as a time here
+     */
+    public static long getCurrentUtcTime() {
+        return wallToSystemMS(System.currentTimeMillis() / 1000);
+    }
+
+    /**
+     * Returns the short day name (Mon, Tue...) for the date in the default timezone
+     */
+    public static String getDayName(Date date) {
+        return getDayNames().shortNames[getDayOfWeek(date.getTime()).ordinal()];
+    }
+
+    /**
+     * Returns the full day name (Monday, Tuesday...) for the date in the default timezone
+     */
+    public static String getDayNameFull(Date date) {
+        return getDayNames().fullNames[getDayOfWeek(date.getTime()).ordinal()];
+    }
+
+    /**
+     * Returns true if the date falls on today in the default timezone
+     */
+    public static boolean isToday(Date date) {
+        return getEpochDay(date.getTime()) == getEpochDay(System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the day number since 1970-01-01 of the time in the default timezone
+     */
+    public static long getEpochDay(long timeMS) {
+        long secs = Math.floorDiv(timeMS, 1000L);
+        ZoneOffset offset = ZoneId.systemDefault().getRules().getOffset(Instant.ofEpochSecond(secs));
+        return Math.floorDiv(secs + offset.getTotalSeconds(), secsPerDay);
+    }
+
+    private static DayOfWeek getDayOfWeek(long timeMS) {
+        //1970-01-01 was a Thursday
+        return DayOfWeek.THURSDAY.plus(Math.floorMod(getEpochDay(timeMS), 7));
+    }
+
+    private static DayNames getDayNames() {
+        DayNames names = dayNames;
+        Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+        if (names == null || !names.locale.equals(locale)) {
+            names = new DayNames(locale);
+            dayNames = names;
+        }
+        return names;
+    }
+
+    private static int localSecondOfDay(long unixSecs, ZoneOffset offset) {
+        return (int) Math.floorMod(unixSecs + offset.getTotalSeconds(), (long) secsPerDay);
+    }
+
+    //reads a clock time in seconds as a time in the default timezone - clock times in a DST gap or overlap
+    //resolve the way the lenient SimpleDateFormat parse used to
+    private static long wallToSystemMS(long wallSecs) {
+        LocalDateTime wall = LocalDateTime.ofEpochSecond(wallSecs, 0, ZoneOffset.UTC);
+        ZoneRules rules = ZoneId.systemDefault().getRules();
+        List<ZoneOffset> offsets = rules.getValidOffsets(wall);
+        ZoneOffset offset;
+        if (offsets.size() == 1) {
+            offset = offsets.get(0);
+        } else if (offsets.isEmpty()) {
+            offset = rules.getTransition(wall).getOffsetBefore();
+        } else {
+            offset = rules.getTransition(wall).getOffsetAfter();
+        }
+        return (wallSecs - offset.getTotalSeconds()) * 1000L;
+    }
+}
@@ -102,8 +102,10 @@ public class geoLocation implements Comparable<geoLocation> {
     }
 
     public String getFullNameWithTemp(){
-        if (!weather.hasWeather()){
-            weather.update();
+        if (!weather.hasWeather() || weather.getCurrentWeather()==null){
+            //never block the caller - start the update and show the temp once it arrives
+            WeatherRefresher.refreshAsync(this);
+            return getFullName();
         }
         String temp = weather.getCurrentWeather().getTempFormatted(units);
         return this.name + "," + this.country + " " + temp + " lat:" + this.latitude + " lon:" + this.longitude;
@@ -2,7 +2,7 @@ package sageweather;
 
 import com.google.gson.*;
 
-import java.io.IOException;
+import java.io.*;
 
 /**
  * Created by jusjoken on 7/16/2021.
@@ -37,13 +37,13 @@ public class geoLocationSearch {
         this.searchCountryCode = searchCountryCode;
     }
 
-    //Name search -       http://api.openweathermap.org/geo/1.0/direct?q={city name},{state code},{country code}&limit={limit}&appid={API key}
-    //Zip-Postal search - http://api.openweathermap.org/geo/1.0/zip?zip={zip code},{country code}&appid={API key}
+    //Name search -       https://api.openweathermap.org/geo/1.0/direct?q={city name},{state code},{country code}&limit={limit}&appid={API key}
+    //Zip-Postal search - https://api.openweathermap.org/geo/1.0/zip?zip={zip code},{country code}&appid={API key}
     //Note - postal code search uses first 3 characters of entered postal code and must then have the 2 char country added
 
     public boolean search(){
         boolean foundResults = false;
-        String urlBase = "http://api.openweathermap.org/geo/1.0/";
+        String urlBase = utils.getApiBaseUrl() + "geo/1.0/";
         String urlType;
         String urlSearchLoc;
         String urlLimit = "";
@@ -65,9 +65,12 @@ public class geoLocationSearch {
         url = urlBase + urlType + urlSearchLoc + urlLimit + "&appid=" + utils.getAPIKey();
         Log.info("geoLocationSearch","geoLocationSearch: search - Searching for locations - url = '" + url + "'");
 
+        long start = System.currentTimeMillis();
         try {
             parse(url);
+            WeatherMetrics.recordSearch(System.currentTimeMillis() - start, true);
         } catch (IOException e) {
+            WeatherMetrics.recordSearch(System.currentTimeMillis() - start, false);
             Log.info("geoLocationSearch","OWM: geoLocationSearch - failed to parse details from url '" + url + "'");
         }
         if (searchResults.mapLocations.size()>0){
@@ -78,12 +81,28 @@ public class geoLocationSearch {
     }
 
     private void parse(String urlString) throws IOException, JsonIOException {
-        //read the url and get the JSON results as a string
-        String data = utils.getContentAsString(urlString);
+        //stream the response (or the cached copy of it) straight into the parser
+        //searches come last when the api quota is nearly used
+        InputStream in = WeatherResponseCache.open(urlString, ApiQuota.Priority.Search);
+        try {
+            parse(new BufferedReader(new InputStreamReader(in, "UTF-8")));
+        } finally {
+            in.close();
+        }
+    }
 
-        // Convert to a JSON object to get the elements
-        JsonParser jp = new JsonParser(); //from gson
-        JsonElement rootElement = jp.parse(data); //Convert the input stream to a json element
+    /**
+     * Adds the locations in a geocoding response to the search results
+     */
+    public void parse(Reader reader) throws IOException {
+        JsonElement rootElement;
+        try {
+            // Convert to a JSON object to get the elements
+            JsonParser jp = new JsonParser(); //from gson
+            rootElement = jp.parse(reader); //Convert the input stream to a json element
+        } catch (JsonParseException e) {
+            throw new IOException("JSON Response for Location could not be parsed: " + e.getMessage());
+        }
         //JsonObject root = rootElement.getAsJsonObject(); //May be an array, may be an object.
         if (rootElement == null) throw new IOException("JSON Response for 'root' Location did not contain a valid response");
 
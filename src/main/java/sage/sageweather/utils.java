@@ -6,13 +6,9 @@ import org.apache.commons.lang.math.NumberUtils;
 
 import java.io.*;
 import java.net.*;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Properties;
-import java.util.TimeZone;
 
-import org.apache.commons.io.IOUtils;
 
 import static sageweather.OWM.wProps;
 
@@ -22,11 +18,16 @@ import static sageweather.OWM.wProps;
 public class utils {
     private static boolean testing;
     private static String userKey = "";
-    private static int maxDevAPIKeyUse = 3;
-    private static int countDevAPIKeyUse = 0;
     private static String apiKeyFileName = "owmkey.properties";
     private static String weatherLocationsFileName = "GWeatherLocations";
+    private static String weatherCacheDirName = "GWeatherCache";
     private static String weatherIconSetKey = Const.BaseProp + Const.PropDivider + Const.WeatherProp + Const.PropDivider + "IconSet";
+    private static String updateIntervalKey = Const.BaseProp + Const.PropDivider + Const.WeatherProp + Const.PropDivider + "UpdateInterval";
+    private static String checkIntervalKey = Const.BaseProp + Const.PropDivider + Const.WeatherProp + Const.PropDivider + "CheckInterval";
+    public static final String apiBaseUrlKey = Const.BaseProp + Const.PropDivider + Const.WeatherProp + Const.PropDivider + "ApiBaseUrl";
+    public static final String defaultApiBaseUrl = "https://api.openweathermap.org/";
+    private static int defaultUpdateInterval = 180; // minutes
+    private static int defaultCheckInterval = 30; // minutes
 
 
     private static String version = "3.0.3";
@@ -86,10 +87,7 @@ public class utils {
     }
 
     public static String getContentAsString(String url) throws IOException {
-        URL thisURL = new URL(url);
-        URLConnection conn = thisURL.openConnection();
-        InputStream is = conn.getInputStream();
-        return IOUtils.toString(is, "UTF-8");
+        return WeatherHttpClient.getAsString(url);
     }
 
     //create a unique id from the lat long of a location to use as a locationID
@@ -100,7 +98,9 @@ public class utils {
         long latMask = lat_int > 0x7FFF0000L ? 0x1ffff0000L : 0xffff0000L;
         long val=Math.abs(lat_int << 16 &  latMask | lon_int & 0x0000ffff);
         val = val % Integer.MAX_VALUE;
-        Log.info("utils","utils: getUniqueId - generated: " + val);
+        if (Log.isDebugEnabled("utils")) {
+            Log.debug("utils","utils: getUniqueId - generated: " + val);
+        }
         return String.valueOf(val);
     }
 
@@ -116,7 +116,7 @@ public class utils {
         }
     }
 
-    public static String getUserKey(){
+    public static synchronized String getUserKey(){
         if (utils.userKey.isEmpty()){
             String tempKey = GetServerProperty(Const.BaseProp + Const.PropDivider + Const.UserApiKey,"");
             if (tempKey.isEmpty()){
@@ -129,15 +129,8 @@ public class utils {
     }
 
     private static String getDevKey(){
-        //only allow the user to use the developer key MAX times
-        countDevAPIKeyUse++;
-        if(!utils.isTesting() && countDevAPIKeyUse>maxDevAPIKeyUse){
-            return "";
-        }else{
-            String k = "";
-            k = new StringBuilder(utils.sAPI).reverse().toString();
-            return k;
-        }
+        //use of the developer key is limited by ApiQuota
+        return new StringBuilder(utils.sAPI).reverse().toString();
     }
 
     public static void setUserKey(String userKey) {
@@ -195,9 +188,39 @@ public class utils {
     }
 
 
+    /**
+     * Returns how long fetched weather is current for in seconds (UpdateInterval property in minutes)
+     */
     public static int getUpdateInterval(){
-        //TODO: get update intervale from properties
-        return 30*60;
+        if (wProps==null){
+            return defaultUpdateInterval*60;
+        }
+        return Math.max(1, GetServerPropertyAsInteger(updateIntervalKey, defaultUpdateInterval))*60;
+    }
+
+    /**
+     * Returns the minimum time between update checks in seconds (CheckInterval property in minutes)
+     */
+    public static int getCheckInterval(){
+        if (wProps==null){
+            return defaultCheckInterval*60;
+        }
+        return Math.max(0, GetServerPropertyAsInteger(checkIntervalKey, defaultCheckInterval))*60;
+    }
+
+    /**
+     * Returns the root all OpenWeatherMap api urls are built from (ApiBaseUrl property) ending with a /
+     *  - normally the public api, set it to point the plugin at a proxy or a local stand-in server
+     */
+    public static String getApiBaseUrl(){
+        if (wProps==null){
+            return defaultApiBaseUrl;
+        }
+        String baseUrl = GetServerProperty(apiBaseUrlKey, defaultApiBaseUrl).trim();
+        if (baseUrl.isEmpty()){
+            return defaultApiBaseUrl;
+        }
+        return baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
     }
 
     public static String GetJSONAsString(String key, JsonObject item){
@@ -263,6 +286,10 @@ public class utils {
         return GetSageTVRootDir() + File.separator + weatherLocationsFileName + propFileSuffix + ".properties";
     }
 
+    public static String GetWeatherCacheDir(){
+        return GetSageTVRootDir() + File.separator + weatherCacheDirName;
+    }
+
     public static String GetSageTVRootDir(){
         return System.getProperty("user.dir");
     }
@@ -314,15 +341,7 @@ public class utils {
     }
 
     public static long getCurrentUtcTime() {
-        SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyy-MMM-dd HH:mm:ss");
-        simpleDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
-        SimpleDateFormat localDateFormat = new SimpleDateFormat("yyyy-MMM-dd HH:mm:ss");
-        try {
-            return localDateFormat.parse( simpleDateFormat.format(new Date()) ).getTime();
-        } catch (ParseException e) {
-            e.printStackTrace();
-            return 0;
-        }
+        return WeatherTime.getCurrentUtcTime();
     }
 
 }
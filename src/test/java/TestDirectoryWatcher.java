@@ -0,0 +1,60 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import sageweather.*;
+
+/**
+ * Checks that changes in a watched directory and its sub directories are reported
+ */
+public class TestDirectoryWatcher {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static class Latch implements DirectoryWatcher.Listener {
+        private volatile CountDownLatch latch = new CountDownLatch(1);
+
+        @Override
+        public void directoryChanged(File root) {
+            latch.countDown();
+        }
+
+        boolean await() throws InterruptedException {
+            boolean changed = latch.await(20, TimeUnit.SECONDS);
+            latch = new CountDownLatch(1);
+            return changed;
+        }
+    }
+
+    @Test
+    public void testReportsChanges() throws IOException, InterruptedException {
+        File root = folder.newFolder("Backgrounds");
+        Latch listener = new Latch();
+        assertTrue(DirectoryWatcher.getInstance().watch(root, listener));
+        try {
+            File code = new File(root, "32");
+            assertTrue(code.mkdir());
+            assertTrue(listener.await());
+
+            //a sub directory created after watching started is watched too
+            assertTrue(new File(code, "sunny.jpg").createNewFile());
+            assertTrue(listener.await());
+        } finally {
+            DirectoryWatcher.getInstance().unwatch(root);
+        }
+    }
+
+    @Test
+    public void testMissingRoot() {
+        File root = new File(folder.getRoot(), "missing");
+        Latch listener = new Latch();
+        assertFalse(DirectoryWatcher.getInstance().watch(root, listener));
+        DirectoryWatcher.getInstance().unwatch(root);
+    }
+}
@@ -0,0 +1,95 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Date;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import sageweather.*;
+
+/**
+ * Round trips forecast snapshots through the memory mapped forecast file
+ */
+public class TestForecastFile {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ForecastSnapshot parseFixture(IWeatherLocation.Units units) throws IOException {
+        OWMWeatherJsonHandler handler = new OWMWeatherJsonHandler();
+        handler.parse(new InputStreamReader(getClass().getResourceAsStream("/onecall.json"), "UTF-8"), units);
+        return new ForecastSnapshot(units, handler.getCurrent(), handler.getDays(), handler.getRecordedDate(), new Date());
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        File file = new File(folder.getRoot(), "forecasts.gwf");
+        ForecastSnapshot metric = parseFixture(IWeatherLocation.Units.Metric);
+        ForecastSnapshot standard = parseFixture(IWeatherLocation.Units.Standard);
+
+        ForecastFile store = new ForecastFile(file);
+        store.write("1234567", metric);
+        store.write("7654321", standard);
+        assertNull(store.read("999"));
+        store.close();
+
+        //reopen so the slots are found from the file itself
+        store = new ForecastFile(file);
+        assertEquals(2, store.size());
+        ForecastSnapshot read = store.read("1234567");
+        assertEquals(IWeatherLocation.Units.Metric, read.getUnits());
+        assertEquals(metric.getRecordedDate(), read.getRecordedDate());
+        assertEquals(metric.getLastUpdated(), read.getLastUpdated());
+        assertEquals(metric.getCurrent().toString(), read.getCurrent().toString());
+        assertEquals(metric.getCurrent().getDayStart(), read.getCurrent().getDayStart());
+        assertEquals(metric.getDays().size(), read.getDays().size());
+        for (int i = 0; i < metric.getDays().size(); i++) {
+            assertEquals(metric.getDays().get(i).toString(), read.getDays().get(i).toString());
+        }
+        assertEquals(IWeatherLocation.Units.Standard, store.read("7654321").getUnits());
+
+        store.remove("1234567");
+        assertNull(store.read("1234567"));
+        assertEquals(1, store.size());
+        store.close();
+    }
+
+    @Test
+    public void testGrowsPastFirstSlots() throws IOException {
+        ForecastFile store = new ForecastFile(new File(folder.getRoot(), "many.gwf"));
+        ForecastSnapshot snapshot = parseFixture(IWeatherLocation.Units.Metric);
+        for (int i = 0; i < 100; i++) {
+            store.write(String.valueOf(i), snapshot);
+        }
+        assertEquals(100, store.size());
+        assertEquals(snapshot.getCurrent().toString(), store.read("99").getCurrent().toString());
+        store.close();
+    }
+
+    @Test
+    public void testSharedBetweenOpenFiles() throws IOException {
+        //two instances on one file stand in for two processes sharing it
+        File file = new File(folder.getRoot(), "shared.gwf");
+        ForecastSnapshot metric = parseFixture(IWeatherLocation.Units.Metric);
+        ForecastSnapshot standard = parseFixture(IWeatherLocation.Units.Standard);
+        ForecastFile first = new ForecastFile(file);
+        ForecastFile second = new ForecastFile(file);
+
+        first.write("111", metric);
+        second.write("222", standard);
+        assertEquals(IWeatherLocation.Units.Metric, second.read("111").getUnits());
+        assertEquals(IWeatherLocation.Units.Standard, first.read("222").getUnits());
+
+        //the freed slot is reused for another location - the old index entry must not serve it
+        assertNotNull(second.read("111"));
+        first.remove("111");
+        first.write("333", standard);
+        assertNull(second.read("111"));
+        assertEquals(IWeatherLocation.Units.Standard, second.read("333").getUnits());
+        assertEquals(2, second.size());
+        first.close();
+        second.close();
+    }
+}
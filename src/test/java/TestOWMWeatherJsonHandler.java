@@ -0,0 +1,92 @@
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Date;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import sageweather.*;
+
+/**
+ * Checks the streaming parser against the Gson tree of a saved onecall response
+ */
+public class TestOWMWeatherJsonHandler {
+
+    private Reader fixture() throws IOException {
+        return new InputStreamReader(getClass().getResourceAsStream("/onecall.json"), "UTF-8");
+    }
+
+    @Test
+    public void testStreamingMatchesTree() throws IOException {
+        JsonObject root = new JsonParser().parse(fixture()).getAsJsonObject();
+        JsonObject currently = root.getAsJsonObject("current");
+        JsonArray daily = root.getAsJsonArray("daily");
+        for (IWeatherLocation.Units units : IWeatherLocation.Units.values()) {
+            OWMWeatherJsonHandler streamed = new OWMWeatherJsonHandler();
+            streamed.parse(fixture(), units);
+
+            assertEquals(new Date(currently.get("dt").getAsLong() * 1000), streamed.getRecordedDate());
+            assertPeriod(currently, "temp", "feels_like", streamed.getCurrent());
+            assertEquals(daily.size(), streamed.getDays().size());
+            for (int i = 0; i < daily.size(); i++) {
+                JsonObject item = daily.get(i).getAsJsonObject();
+                ForecastPeriod day = (ForecastPeriod) streamed.getDays().get(i).getForecastPeriodDay();
+                ForecastPeriod night = (ForecastPeriod) streamed.getDays().get(i).getForecastPeriodNight();
+                assertPeriod(item, "day", "day", day);
+                assertPeriod(item, "night", "night", night);
+                assertEquals((int) Math.floor(item.get("moon_phase").getAsDouble() * 30), day.getMoonPhase());
+                assertEquals(day.getSunrise(), night.getSunrise());
+                assertEquals(day.getSunset(), night.getSunset());
+                if (i == 0) {
+                    assertEquals(day.getSunrise(), streamed.getCurrent().getSunrise());
+                    assertEquals(day.getPrecip(), streamed.getCurrent().getPrecip());
+                }
+            }
+        }
+    }
+
+    //daily items keep the temp and feels_like for each part of the day in an object
+    private void assertPeriod(JsonObject item, String tempKey, String feelsKey, ForecastPeriod period) {
+        JsonObject weather = item.getAsJsonArray("weather").get(0).getAsJsonObject();
+        JsonObject temps = item.get("temp").isJsonObject() ? item.getAsJsonObject("temp") : item;
+        JsonObject feels = item.get("feels_like").isJsonObject() ? item.getAsJsonObject("feels_like") : item;
+        assertEquals(new Date(item.get("dt").getAsLong() * 1000), period.getDate());
+        assertEquals(Math.round(temps.get(tempKey).getAsDouble()), period.getTemp());
+        assertEquals(Math.round(feels.get(feelsKey).getAsDouble()), period.getFeelsLike());
+        assertEquals(weather.get("main").getAsString(), period.getCondition());
+        assertEquals(weather.get("description").getAsString(), period.getDescription());
+        assertEquals(item.get("pressure").getAsString(), period.getPressure());
+        assertEquals(item.get("uvi").getAsString(), period.getUVIndex());
+        assertEquals(Math.round(item.get("wind_speed").getAsDouble()), period.getWindSpeed());
+    }
+
+    @Test
+    public void testStreamingValues() throws IOException {
+        OWMWeatherJsonHandler handler = new OWMWeatherJsonHandler();
+        handler.parse(fixture(), IWeatherLocation.Units.Metric);
+
+        ForecastPeriod current = handler.getCurrent();
+        assertEquals(52, current.getTemp());
+        assertEquals(12, current.getCode());
+        assertEquals("Rain", current.getCondition());
+        assertEquals(IForecastPeriod.PrecipType.Rain, current.getPrecipType());
+        assertEquals("1012", current.getPressure());
+        assertEquals("SSE", current.getWindDirText());
+        assertEquals(3, handler.getDays().size());
+
+        IForecastPeriod snowDay = handler.getDays().get(1).getForecastPeriodDay();
+        assertEquals(IForecastPeriod.PrecipType.Snow, snowDay.getPrecipType());
+        assertEquals(IForecastPeriod.WindCalm, snowDay.getWindDirText());
+        assertEquals("46%", snowDay.getPrecip());
+        assertEquals(35, handler.getDays().get(1).getForecastPeriodNight().getTemp());
+        assertEquals(46, handler.getDays().get(1).getForecastPeriodNight().getCode());
+    }
+
+    @Test(expected = IOException.class)
+    public void testMissingCurrent() throws IOException {
+        new OWMWeatherJsonHandler().parse(new java.io.StringReader("{\"timezone\":\"UTC\",\"daily\":[]}"), IWeatherLocation.Units.Metric);
+    }
+}
@@ -0,0 +1,52 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import sageweather.*;
+
+/**
+ * Checks the single pass icon url parser against the replaceAll version it replaced
+ */
+public class TestWIcons {
+    private static final String[] urls = {
+            "http://www.google.com/ig/images/weather/chance_of_rain.gif",
+            "http://www.google.com/ig/images/weather/mostly_sunny.gif",
+            "http://forecast.weather.gov/images/wtf/ra40.jpg",
+            "http://forecast.weather.gov/images/wtf/hi_shwrs30.jpg",
+            "http://forecast.weather.gov/images/wtf/nscttsra20.png",
+            "http://forecast.weather.gov/images/wtf/skc.jpg",
+            "http://forecast.weather.gov/images/wtf/nrasn90.jpg",
+            "http://example.com/icons/unknown_icon.png",
+    };
+
+    private static String legacy(String ConditionURL, Boolean ForceDay) {
+        int tIcon = ConditionURL.lastIndexOf("/");
+        String Condition = ConditionURL.substring(tIcon + 1);
+        Condition = Condition.replaceAll(".gif", "");
+        Condition = Condition.replaceAll(".jpg", "");
+        Condition = Condition.replaceAll(".png", "");
+        if (Condition.contains("0")) {
+            for (int i = 1; i <= 9; i++) {
+                Condition = Condition.replaceAll(i + "0", "");
+            }
+        }
+        String tCondition = WIcons.GetWeatherIcon(Condition, ForceDay);
+        return tCondition.equals(Condition) ? ConditionURL : tCondition;
+    }
+
+    @Test
+    public void testMatchesReplaceAll() {
+        for (int pass = 0; pass < 2; pass++) {
+            for (String url : urls) {
+                assertEquals(url, legacy(url, Boolean.TRUE), WIcons.ConvertURLtoCondition(url, Boolean.TRUE));
+            }
+        }
+    }
+
+    @Test
+    public void testConditions() {
+        assertEquals("39", WIcons.ConvertURLtoCondition(urls[0], Boolean.TRUE));
+        assertEquals("12", WIcons.ConvertURLtoCondition(urls[2], Boolean.TRUE));
+        assertEquals("no_slash", WIcons.ConvertURLtoCondition("no_slash", Boolean.TRUE));
+        assertEquals(urls[7], WIcons.ConvertURLtoCondition(urls[7], Boolean.TRUE));
+    }
+}
@@ -0,0 +1,49 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import sageweather.*;
+
+/**
+ * Checks that retried requests count once with the circuit breaker
+ */
+public class TestWeatherHttpClient {
+
+    @Test
+    public void testRetriesCountOnceWithBreaker() throws IOException {
+        final AtomicInteger requests = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                exchange.sendResponseHeaders(503, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        try {
+            String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/data";
+            CircuitBreaker breaker = CircuitBreaker.forUrl(url);
+            breaker.recordSuccess();
+            try {
+                WeatherHttpClient.get(url);
+                fail("Expected the 503 to be reported");
+            } catch (WeatherHttpClient.HttpStatusException e) {
+                assertEquals(503, e.getStatus());
+            }
+            assertEquals(WeatherHttpClient.defaultFetchRetries + 1, requests.get());
+            //one failed request must not open the breaker for the host
+            assertEquals(CircuitBreaker.State.Closed, breaker.getState());
+            breaker.recordSuccess();
+        } finally {
+            server.stop(0);
+        }
+    }
+}
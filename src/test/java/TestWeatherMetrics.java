@@ -0,0 +1,78 @@
+import java.lang.management.ManagementFactory;
+import javax.management.ObjectName;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import sageweather.*;
+
+/**
+ * Checks the metrics histograms, text dump and MBean
+ */
+public class TestWeatherMetrics {
+
+    @Before
+    public void reset() {
+        WeatherMetrics.getInstance().reset();
+    }
+
+    @Test
+    public void testTimer() {
+        WeatherMetrics.Timer timer = new WeatherMetrics.Timer();
+        timer.record(3);
+        timer.record(40);
+        timer.record(60000);
+        assertEquals(3, timer.getCount());
+        assertEquals(60000, timer.getMaxMS());
+        assertEquals((3 + 40 + 60000) / 3.0, timer.getMeanMS(), 0.001);
+    }
+
+    @Test
+    public void testDump() {
+        WeatherMetrics.recordFetch(120, true);
+        WeatherMetrics.recordFetch(20, false);
+        WeatherMetrics.recordBytes(2048);
+        WeatherMetrics.recordCache(WeatherMetrics.CacheResult.Hit);
+        WeatherMetrics.recordCache(WeatherMetrics.CacheResult.Miss);
+        WeatherMetrics.recordApiCall("abc123");
+        WeatherMetrics.recordUpdate("42", "Rockford", 150, true);
+
+        WeatherMetrics metrics = WeatherMetrics.getInstance();
+        assertEquals(2, metrics.getFetchCount());
+        assertEquals(1, metrics.getFetchFailures());
+        assertEquals(0.5, metrics.getCacheHitRatio(), 0.001);
+        assertEquals(1, metrics.getApiCalls());
+
+        String dump = metrics.dump();
+        assertTrue(dump.contains("gweather_fetch_ms_bucket{le=\"25\"} 1\n"));
+        assertTrue(dump.contains("gweather_fetch_ms_bucket{le=\"250\"} 2\n"));
+        assertTrue(dump.contains("gweather_fetch_ms_count 2\n"));
+        assertTrue(dump.contains("gweather_bytes_downloaded_total 2048\n"));
+        assertTrue(dump.contains("gweather_api_calls_total{key=\"abc123\"} 1\n"));
+        assertTrue(dump.contains("gweather_location_staleness_seconds{id=\"42\",name=\"Rockford\"} 0\n"));
+
+        //a reset drops removed locations along with the counts
+        metrics.reset();
+        assertFalse(metrics.dump().contains("gweather_location_staleness_seconds{id=\"42\""));
+    }
+
+    @Test
+    public void testSeededStaleness() {
+        //a location that has not updated since startup is stale from its saved snapshot
+        WeatherMetrics.seedLocation("43", "Elsewhere", new java.util.Date(System.currentTimeMillis() - 3600 * 1000L));
+        assertTrue(WeatherMetrics.getInstance().getMaxStalenessSecs() >= 3600);
+        //an update in this run wins over the seed and a later seed does not replace it
+        WeatherMetrics.recordUpdate("43", "Elsewhere", 10, true);
+        WeatherMetrics.seedLocation("43", "Elsewhere", new java.util.Date(0));
+        assertTrue(WeatherMetrics.getInstance().dump().contains("gweather_location_staleness_seconds{id=\"43\",name=\"Elsewhere\"} 0\n"));
+        WeatherMetrics.forgetLocation("43");
+    }
+
+    @Test
+    public void testMBean() throws Exception {
+        WeatherMetrics.register();
+        WeatherMetrics.recordParse(7);
+        Object count = ManagementFactory.getPlatformMBeanServer().getAttribute(new ObjectName(WeatherMetrics.objectName), "ParseCount");
+        assertEquals(1L, count);
+    }
+}
@@ -0,0 +1,125 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import sageweather.*;
+
+/**
+ * Checks that queued property saves are written together and are never lost on reload
+ */
+public class TestWeatherProperties {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String userDir;
+
+    @Before
+    public void setUp() {
+        userDir = System.getProperty("user.dir");
+        System.setProperty("user.dir", folder.getRoot().getPath());
+    }
+
+    @After
+    public void tearDown() {
+        System.setProperty("user.dir", userDir);
+    }
+
+    @Test
+    public void testSavesAreWrittenTogether() throws IOException {
+        File file = new File(utils.GetWeatherLocationsFullPath("props"));
+        WeatherProperties props = new WeatherProperties("props");
+        for (int i = 0; i < 50; i++) {
+            props.put("key" + i, "value" + i);
+            props.save();
+        }
+        assertTrue(props.hasUnsavedChanges());
+
+        props.flush();
+        assertFalse(props.hasUnsavedChanges());
+        assertTrue(file.isFile());
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        WeatherProperties reloaded = new WeatherProperties("props");
+        assertEquals(50, reloaded.size());
+        assertEquals("value49", reloaded.getProperty("key49"));
+
+        //the file is written in key order
+        List<String> written = new ArrayList<String>();
+        for (String line : org.apache.commons.io.FileUtils.readLines(file, "UTF-8")) {
+            if (!line.startsWith("#")) {
+                written.add(line.substring(0, line.indexOf('=')));
+            }
+        }
+        List<String> sorted = new ArrayList<String>(written);
+        Collections.sort(sorted);
+        assertEquals(sorted, written);
+    }
+
+    @Test
+    public void testReloadSeesQueuedChanges() {
+        WeatherProperties props = new WeatherProperties("queued");
+        props.put("name", "first");
+        props.save();
+        props.put("name", "second");
+        props.save();
+
+        //loading the same file writes what the other instance still has queued
+        WeatherProperties reloaded = new WeatherProperties("queued");
+        assertFalse(props.hasUnsavedChanges());
+        assertEquals("second", reloaded.getProperty("name"));
+    }
+
+    @Test
+    public void testPrefixLookups() {
+        WeatherProperties props = new WeatherProperties("prefix");
+        props.setProperty("loc/123", "123");
+        props.setProperty("loc/123/name", "Rockford");
+        props.setProperty("loc/1234", "1234");
+        props.setProperty("loc/124/name", "Elsewhere");
+        props.setProperty("other", "x");
+
+        SortedMap<String, String> view = props.getPropertiesView("loc/123");
+        assertEquals(3, view.size());
+        assertEquals("loc/123", view.firstKey());
+        assertEquals("loc/1234", view.lastKey());
+
+        Map prefixed = props.getPropertiesWithPrefix("loc/123/");
+        assertEquals(1, prefixed.size());
+        assertEquals("Rockford", prefixed.get("name"));
+
+        //the view follows changes and may be changed through the properties while walking it
+        for (String key : props.getPropertiesView("loc/").keySet()) {
+            props.remove(key);
+        }
+        assertTrue(view.isEmpty());
+        assertEquals(1, props.size());
+        assertNull(props.getProperty("loc/123/name"));
+    }
+
+    @Test
+    public void testKeysAreSorted() {
+        WeatherProperties props = new WeatherProperties("sorted");
+        props.setProperty("b", "2");
+        props.setProperty("c", "3");
+        props.setProperty("a", "1");
+        List<Object> keys = Collections.list(props.keys());
+        List<Object> sorted = new ArrayList<Object>(keys);
+        Collections.sort((List) sorted);
+        assertEquals(sorted, keys);
+        assertEquals(3, keys.size());
+
+        props.clear();
+        assertFalse(props.keys().hasMoreElements());
+    }
+}
@@ -0,0 +1,62 @@
+import java.io.File;
+import java.io.IOException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import sageweather.*;
+
+/**
+ * Checks that old and surplus response cache entries are removed
+ */
+public class TestWeatherResponseCache {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String userDir;
+
+    @Before
+    public void setUp() {
+        userDir = System.getProperty("user.dir");
+        System.setProperty("user.dir", folder.getRoot().getPath());
+    }
+
+    @After
+    public void tearDown() {
+        System.setProperty("user.dir", userDir);
+    }
+
+    @Test
+    public void testPrune() throws IOException {
+        File dir = new File(utils.GetWeatherCacheDir());
+        dir.mkdirs();
+        long now = System.currentTimeMillis();
+        long day = 24L * 60 * 60 * 1000;
+        int entries = WeatherResponseCache.defaultMaxEntries + 5;
+        for (int i = 0; i < entries; i++) {
+            File file = new File(dir, "entry" + i + ".cache");
+            assertTrue(file.createNewFile());
+            //entry0 is the oldest, all within the age limit
+            file.setLastModified(now - (entries - i) * 1000L);
+        }
+        File expired = new File(dir, "expired.cache");
+        expired.createNewFile();
+        expired.setLastModified(now - (WeatherResponseCache.defaultMaxAgeDays + 1) * day);
+        File orphan = new File(dir, "gwc1.tmp");
+        orphan.createNewFile();
+        orphan.setLastModified(now - day);
+
+        assertEquals(7, WeatherResponseCache.prune());
+        assertFalse(expired.exists());
+        assertFalse(orphan.exists());
+        for (int i = 0; i < 5; i++) {
+            assertFalse(new File(dir, "entry" + i + ".cache").exists());
+        }
+        assertTrue(new File(dir, "entry5.cache").exists());
+        assertEquals(WeatherResponseCache.defaultMaxEntries, dir.list().length);
+    }
+}
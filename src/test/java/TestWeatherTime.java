@@ -0,0 +1,62 @@
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import sageweather.*;
+
+/**
+ * Checks the java.time results against the SimpleDateFormat code they replaced
+ */
+public class TestWeatherTime {
+    private static final String[] zones = {"America/Chicago", "Europe/London", "Australia/Adelaide", "Asia/Kolkata", "UTC"};
+    private final TimeZone original = TimeZone.getDefault();
+
+    @After
+    public void restore() {
+        TimeZone.setDefault(original);
+    }
+
+    private static String legacySunTime(long secs, String tz) {
+        SimpleDateFormat format = new SimpleDateFormat("h:mm");
+        format.setTimeZone(TimeZone.getTimeZone(tz));
+        return format.format(new Date(secs * 1000));
+    }
+
+    private static long legacyStartEnd(long secs, String tz) throws ParseException {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MMM-dd HH:mm:ss");
+        format.setTimeZone(TimeZone.getTimeZone(tz));
+        return new SimpleDateFormat("yyyy-MMM-dd HH:mm:ss").parse(format.format(new Date(secs * 1000))).getTime();
+    }
+
+    @Test
+    public void testMatchesSimpleDateFormat() throws ParseException {
+        for (String local : zones) {
+            TimeZone.setDefault(TimeZone.getTimeZone(local));
+            //a year of sunrises 7h13m apart so every hour and both DST changes are covered
+            for (long secs = 1672531200L; secs < 1704067200L; secs += 7 * 3600 + 13 * 60) {
+                Date date = new Date(secs * 1000);
+                for (String tz : zones) {
+                    assertEquals(legacySunTime(secs, tz), WeatherTime.formatSunTime(secs, tz));
+                    assertEquals(local + " " + tz + " " + secs, legacyStartEnd(secs, tz), WeatherTime.toLocalClock(secs, tz));
+                }
+                assertEquals(new SimpleDateFormat("EEE").format(date), WeatherTime.getDayName(date));
+                assertEquals(new SimpleDateFormat("EEEE").format(date), WeatherTime.getDayNameFull(date));
+            }
+        }
+    }
+
+    @Test
+    public void testToday() {
+        assertTrue(WeatherTime.isToday(new Date()));
+        assertFalse(WeatherTime.isToday(new Date(System.currentTimeMillis() - 2 * 24 * 60 * 60 * 1000L)));
+    }
+
+    @Test
+    public void testUnknownZone() {
+        assertEquals(legacySunTime(1672531200L, "Nowhere/Special"), WeatherTime.formatSunTime(1672531200L, "Nowhere/Special"));
+    }
+}